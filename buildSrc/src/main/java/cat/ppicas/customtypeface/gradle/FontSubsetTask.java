@@ -0,0 +1,348 @@
+/**
+ * Copyright (C) 2014 Pau Picas Sans <pau.picas@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package cat.ppicas.customtypeface.gradle;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.GradleException;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputDirectory;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.api.tasks.TaskAction;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+/**
+ * Gradle task that subsets the fonts of a directory to their declared Unicode ranges, plus
+ * all the characters found in the string resources. The subset fonts are written with the
+ * same relative path in the output directory, so when this directory is added as an assets
+ * directory, {@code CustomTypeface} loads the subset fonts transparently using the original
+ * asset paths.
+ *
+ * <p>
+ * The fonts must be moved out of the assets directory, otherwise the full fonts will also be
+ * packaged. Here is an example of the configuration of an application module:
+ * </p>
+ *
+ * <pre><code>
+ * task subsetFonts(type: cat.ppicas.customtypeface.gradle.FontSubsetTask) {
+ *     fontsDir = file('src/main/fonts')
+ *     resDirs = files('src/main/res')
+ *     outputDir = file("$buildDir/generated/assets/fonts")
+ *     defaultUnicodeRanges = 'U+0020-007E'
+ *     unicodeRanges 'permanent-marker.ttf', 'U+0020-007E, U+00A0-00FF'
+ * }
+ *
+ * android.sourceSets.main.assets.srcDir subsetFonts.outputDir
+ * android.applicationVariants.all { variant -&gt;
+ *     variant.mergeAssets.dependsOn subsetFonts
+ * }
+ * </code></pre>
+ *
+ * <p>
+ * Only fonts with TrueType outlines can be subset. Other fonts, like OTF with CFF outlines,
+ * are copied without changes. Please, check {@link TrueTypeSubsetter} for more details.
+ * </p>
+ */
+public class FontSubsetTask extends DefaultTask {
+
+    private static final Pattern RANGE_PATTERN = Pattern.compile(
+            "U\\+([0-9A-Fa-f]{1,6})(?:-([0-9A-Fa-f]{1,6}))?");
+
+    private static final Pattern UNICODE_ESCAPE_PATTERN = Pattern.compile(
+            "\\\\u([0-9A-Fa-f]{4})");
+
+    private static final List<String> STRING_TAGS = Arrays.asList(
+            "string", "string-array", "plurals");
+
+    private File mFontsDir;
+
+    private List<File> mResDirs = new ArrayList<File>();
+
+    private File mOutputDir;
+
+    private String mDefaultUnicodeRanges = "U+0020-007E";
+
+    private Map<String, String> mUnicodeRanges = new HashMap<String, String>();
+
+    private List<String> mDropTables = new ArrayList<String>(Arrays.asList("DSIG"));
+
+    @InputDirectory
+    public File getFontsDir() {
+        return mFontsDir;
+    }
+
+    /**
+     * @param fontsDir the directory containing the fonts to subset
+     */
+    public void setFontsDir(File fontsDir) {
+        mFontsDir = fontsDir;
+    }
+
+    @InputFiles
+    public List<File> getResDirs() {
+        return mResDirs;
+    }
+
+    /**
+     * @param resDirs the resource directories where to look for string resources
+     */
+    public void setResDirs(Iterable<File> resDirs) {
+        mResDirs = new ArrayList<File>();
+        for (File resDir : resDirs) {
+            mResDirs.add(resDir);
+        }
+    }
+
+    @OutputDirectory
+    public File getOutputDir() {
+        return mOutputDir;
+    }
+
+    /**
+     * @param outputDir the directory where to write the subset fonts
+     */
+    public void setOutputDir(File outputDir) {
+        mOutputDir = outputDir;
+    }
+
+    @Input
+    public String getDefaultUnicodeRanges() {
+        return mDefaultUnicodeRanges;
+    }
+
+    /**
+     * @param ranges the Unicode ranges for the fonts without declared ranges, in CSS
+     *               {@code unicode-range} format like {@code "U+0020-007E, U+00A0-00FF"}
+     */
+    public void setDefaultUnicodeRanges(String ranges) {
+        mDefaultUnicodeRanges = ranges;
+    }
+
+    @Input
+    public Map<String, String> getUnicodeRanges() {
+        return mUnicodeRanges;
+    }
+
+    /**
+     * Declares the Unicode ranges of a font.
+     *
+     * @param fontPath the path of the font relative to the fonts directory
+     * @param ranges   the Unicode ranges in CSS {@code unicode-range} format
+     */
+    public void unicodeRanges(String fontPath, String ranges) {
+        mUnicodeRanges.put(fontPath, ranges);
+    }
+
+    @Input
+    public List<String> getDropTables() {
+        return mDropTables;
+    }
+
+    /**
+     * @param dropTables the tags of the font tables to remove, by default only {@code DSIG}
+     */
+    public void setDropTables(List<String> dropTables) {
+        mDropTables = new ArrayList<String>(dropTables);
+    }
+
+    @TaskAction
+    public void subsetFonts() throws IOException {
+        Set<Integer> stringCodePoints = new HashSet<Integer>();
+        for (File resDir : mResDirs) {
+            collectStringCodePoints(resDir, stringCodePoints);
+        }
+
+        // Remove the fonts of previous runs that could no longer exist
+        deleteContents(mOutputDir);
+
+        TrueTypeSubsetter subsetter = new TrueTypeSubsetter(mDropTables);
+        List<File> fonts = new ArrayList<File>();
+        collectFonts(mFontsDir, fonts);
+        for (File font : fonts) {
+            String path = mFontsDir.toURI().relativize(font.toURI()).getPath();
+            File output = new File(mOutputDir, path);
+            if (!output.getParentFile().isDirectory() && !output.getParentFile().mkdirs()) {
+                throw new IOException("Unable to create " + output.getParentFile());
+            }
+
+            byte[] data = readFile(font);
+            if (!TrueTypeSubsetter.isSupported(data)) {
+                getLogger().warn("Font {} has no TrueType outlines, copying it without changes",
+                        path);
+                writeFile(output, data);
+                continue;
+            }
+
+            String ranges = mUnicodeRanges.containsKey(path)
+                    ? mUnicodeRanges.get(path) : mDefaultUnicodeRanges;
+            Set<Integer> codePoints = parseUnicodeRanges(ranges);
+            codePoints.addAll(stringCodePoints);
+
+            byte[] subset = subsetter.subset(data, codePoints);
+            writeFile(output, subset);
+            getLogger().info("Font {} subset from {} to {} bytes", path, data.length,
+                    subset.length);
+        }
+    }
+
+    static Set<Integer> parseUnicodeRanges(String ranges) {
+        Set<Integer> codePoints = new HashSet<Integer>();
+        for (String range : ranges.split(",")) {
+            range = range.trim();
+            if (range.length() == 0) {
+                continue;
+            }
+            Matcher matcher = RANGE_PATTERN.matcher(range);
+            if (!matcher.matches()) {
+                throw new GradleException("Invalid Unicode range: " + range);
+            }
+            int start = Integer.parseInt(matcher.group(1), 16);
+            int end = matcher.group(2) != null ? Integer.parseInt(matcher.group(2), 16) : start;
+            for (int c = start; c <= end; c++) {
+                codePoints.add(c);
+            }
+        }
+        return codePoints;
+    }
+
+    private void collectStringCodePoints(File resDir, Set<Integer> codePoints)
+            throws IOException {
+        File[] dirs = resDir.listFiles();
+        if (dirs == null) {
+            return;
+        }
+        DocumentBuilder builder;
+        try {
+            builder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+        } catch (Exception e) {
+            throw new GradleException("Unable to create an XML parser", e);
+        }
+        for (File dir : dirs) {
+            File[] files = dir.listFiles();
+            if (!dir.getName().startsWith("values") || files == null) {
+                continue;
+            }
+            for (File file : files) {
+                if (!file.getName().endsWith(".xml")) {
+                    continue;
+                }
+                Document document;
+                try {
+                    document = builder.parse(file);
+                } catch (Exception e) {
+                    throw new GradleException("Unable to parse " + file, e);
+                }
+                for (String tag : STRING_TAGS) {
+                    NodeList nodes = document.getElementsByTagName(tag);
+                    for (int i = 0; i < nodes.getLength(); i++) {
+                        addCodePoints(((Element) nodes.item(i)).getTextContent(), codePoints);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void addCodePoints(String text, Set<Integer> codePoints) {
+        Matcher matcher = UNICODE_ESCAPE_PATTERN.matcher(text);
+        while (matcher.find()) {
+            codePoints.add(Integer.parseInt(matcher.group(1), 16));
+        }
+        for (int i = 0; i < text.length(); ) {
+            int c = text.codePointAt(i);
+            codePoints.add(c);
+            i += Character.charCount(c);
+        }
+    }
+
+    private static void collectFonts(File dir, List<File> fonts) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files);
+        for (File file : files) {
+            if (file.isDirectory()) {
+                collectFonts(file, fonts);
+            } else {
+                fonts.add(file);
+            }
+        }
+    }
+
+    private static void deleteContents(File dir) throws IOException {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.isDirectory()) {
+                deleteContents(file);
+            }
+            if (!file.delete()) {
+                throw new IOException("Unable to delete " + file);
+            }
+        }
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        byte[] data = new byte[(int) file.length()];
+        InputStream in = new FileInputStream(file);
+        try {
+            int read = 0;
+            while (read < data.length) {
+                int count = in.read(data, read, data.length - read);
+                if (count < 0) {
+                    throw new IOException("Unexpected end of file " + file);
+                }
+                read += count;
+            }
+        } finally {
+            in.close();
+        }
+        return data;
+    }
+
+    private static void writeFile(File file, byte[] data) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+    }
+}
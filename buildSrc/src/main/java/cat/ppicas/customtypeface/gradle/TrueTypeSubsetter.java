@@ -0,0 +1,612 @@
+/**
+ * Copyright (C) 2014 Pau Picas Sans <pau.picas@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package cat.ppicas.customtypeface.gradle;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Subsets TrueType fonts (TTF, or OTF with TrueType outlines) to a set of code points.
+ *
+ * <p>
+ * The glyph ids are retained, so the tables referencing glyphs, like {@code hmtx},
+ * {@code kern}, {@code GSUB} or {@code GPOS}, stay valid without being rewritten. The outlines
+ * of the glyphs not needed are removed from the {@code glyf} table, and {@code cmap} is
+ * rebuilt to only map the code points of the subset. The glyphs needed by composite glyphs
+ * are kept, and also the glyphs reachable through the {@code GSUB} substitutions of the kept
+ * glyphs, like ligatures or alternates. The contextual substitutions are handled as if the
+ * lookups they reference could apply to any kept glyph, so some glyphs never used by the
+ * subset text may be kept.
+ * </p>
+ *
+ * <p>
+ * Fonts with CFF outlines and font collections are not supported.
+ * </p>
+ */
+public class TrueTypeSubsetter {
+
+    private static final int TRUETYPE_VERSION = 0x00010000;
+    private static final int TRUETYPE_TAG_VERSION = 0x74727565;
+
+    private static final int ARG_1_AND_2_ARE_WORDS = 0x0001;
+    private static final int WE_HAVE_A_SCALE = 0x0008;
+    private static final int MORE_COMPONENTS = 0x0020;
+    private static final int WE_HAVE_AN_X_AND_Y_SCALE = 0x0040;
+    private static final int WE_HAVE_A_TWO_BY_TWO = 0x0080;
+
+    private static final int GSUB_SINGLE = 1;
+    private static final int GSUB_MULTIPLE = 2;
+    private static final int GSUB_ALTERNATE = 3;
+    private static final int GSUB_LIGATURE = 4;
+    private static final int GSUB_EXTENSION = 7;
+    private static final int GSUB_REVERSE_CHAINING_SINGLE = 8;
+
+    private static final int HEAD_CHECKSUM_ADJUSTMENT_OFFSET = 8;
+    private static final int HEAD_INDEX_TO_LOC_FORMAT_OFFSET = 50;
+    private static final int MAXP_NUM_GLYPHS_OFFSET = 4;
+
+    private final Set<String> mDropTables;
+
+    /**
+     * @param dropTables the tags of the tables to remove from the subset fonts, like
+     *                   {@code DSIG} whose signature is no longer valid after subsetting
+     */
+    public TrueTypeSubsetter(Collection<String> dropTables) {
+        mDropTables = new HashSet<String>(dropTables);
+    }
+
+    /**
+     * Returns true if the font data can be subset by this class.
+     *
+     * @param font the font data
+     * @return true if it's a TrueType font
+     */
+    public static boolean isSupported(byte[] font) {
+        if (font.length < 12) {
+            return false;
+        }
+        int version = ByteBuffer.wrap(font).getInt(0);
+        return version == TRUETYPE_VERSION || version == TRUETYPE_TAG_VERSION;
+    }
+
+    /**
+     * Subsets the font to the specified code points.
+     *
+     * @param font       the font data
+     * @param codePoints the Unicode code points to keep
+     * @return the data of the subset font
+     * @throws IOException if the font is not supported or it's malformed
+     */
+    public byte[] subset(byte[] font, Set<Integer> codePoints) throws IOException {
+        if (!isSupported(font)) {
+            throw new IOException("Only fonts with TrueType outlines are supported");
+        }
+        try {
+            return doSubset(ByteBuffer.wrap(font), codePoints);
+        } catch (RuntimeException e) {
+            IOException ioe = new IOException("Malformed font: " + e);
+            ioe.initCause(e);
+            throw ioe;
+        }
+    }
+
+    private byte[] doSubset(ByteBuffer font, Set<Integer> codePoints) throws IOException {
+        Map<String, ByteBuffer> tables = readTables(font);
+        for (String tag : new String[]{"head", "maxp", "cmap", "loca", "glyf"}) {
+            if (!tables.containsKey(tag)) {
+                throw new IOException("Missing required table " + tag);
+            }
+        }
+
+        ByteBuffer head = tables.get("head");
+        boolean longLoca = head.getShort(HEAD_INDEX_TO_LOC_FORMAT_OFFSET) != 0;
+        int numGlyphs = tables.get("maxp").getShort(MAXP_NUM_GLYPHS_OFFSET) & 0xFFFF;
+        int[] loca = readLoca(tables.get("loca"), numGlyphs, longLoca);
+        ByteBuffer glyf = tables.get("glyf");
+
+        // Find the glyphs to keep
+        Map<Integer, Integer> cmap = new TreeMap<Integer, Integer>();
+        for (Map.Entry<Integer, Integer> entry : readCmap(tables.get("cmap")).entrySet()) {
+            int glyph = entry.getValue();
+            if (codePoints.contains(entry.getKey()) && glyph > 0 && glyph < numGlyphs) {
+                cmap.put(entry.getKey(), glyph);
+            }
+        }
+        boolean[] keep = new boolean[numGlyphs];
+        LinkedList<Integer> pending = new LinkedList<Integer>(cmap.values());
+        pending.add(0);
+        ByteBuffer gsub = tables.get("GSUB");
+        while (!pending.isEmpty()) {
+            while (!pending.isEmpty()) {
+                int glyph = pending.removeFirst();
+                if (keep[glyph]) {
+                    continue;
+                }
+                keep[glyph] = true;
+                for (int component : readComponents(glyf, loca[glyph], loca[glyph + 1])) {
+                    if (component < numGlyphs && !keep[component]) {
+                        pending.add(component);
+                    }
+                }
+            }
+            // The substitutions can reach new glyphs, whose components and substitutions
+            // must be kept too, so repeat until the set of kept glyphs stops changing
+            if (gsub != null && !mDropTables.contains("GSUB")) {
+                addSubstitutions(gsub, keep, pending);
+            }
+        }
+
+        // Rebuild glyf and loca
+        ByteArrayOutputStream glyfOut = new ByteArrayOutputStream();
+        int[] newLoca = new int[numGlyphs + 1];
+        for (int glyph = 0; glyph < numGlyphs; glyph++) {
+            newLoca[glyph] = glyfOut.size();
+            int length = loca[glyph + 1] - loca[glyph];
+            if (keep[glyph] && length > 0) {
+                glyfOut.write(glyf.array(), glyf.arrayOffset() + loca[glyph], length);
+                while (glyfOut.size() % 4 != 0) {
+                    glyfOut.write(0);
+                }
+            }
+        }
+        newLoca[numGlyphs] = glyfOut.size();
+        boolean newLongLoca = newLoca[numGlyphs] / 2 > 0xFFFF;
+
+        ByteBuffer newHead = copy(head);
+        newHead.putShort(HEAD_INDEX_TO_LOC_FORMAT_OFFSET, (short) (newLongLoca ? 1 : 0));
+        newHead.putInt(HEAD_CHECKSUM_ADJUSTMENT_OFFSET, 0);
+
+        tables.put("head", newHead);
+        tables.put("glyf", ByteBuffer.wrap(glyfOut.toByteArray()));
+        tables.put("loca", ByteBuffer.wrap(writeLoca(newLoca, newLongLoca)));
+        tables.put("cmap", ByteBuffer.wrap(writeCmap(cmap)));
+        for (String tag : mDropTables) {
+            tables.remove(tag);
+        }
+
+        return writeFont(font.getInt(0), tables);
+    }
+
+    private static Map<String, ByteBuffer> readTables(ByteBuffer font) throws IOException {
+        Map<String, ByteBuffer> tables = new TreeMap<String, ByteBuffer>();
+        int numTables = font.getShort(4) & 0xFFFF;
+        for (int i = 0; i < numTables; i++) {
+            int record = 12 + i * 16;
+            byte[] tag = new byte[4];
+            for (int j = 0; j < 4; j++) {
+                tag[j] = font.get(record + j);
+            }
+            int offset = font.getInt(record + 8);
+            int length = font.getInt(record + 12);
+            ByteBuffer table = ByteBuffer.wrap(font.array(), font.arrayOffset() + offset, length)
+                    .slice();
+            tables.put(new String(tag, "US-ASCII"), table);
+        }
+        return tables;
+    }
+
+    private static int[] readLoca(ByteBuffer loca, int numGlyphs, boolean longLoca) {
+        int[] offsets = new int[numGlyphs + 1];
+        for (int i = 0; i <= numGlyphs; i++) {
+            offsets[i] = longLoca ? loca.getInt(i * 4) : (loca.getShort(i * 2) & 0xFFFF) * 2;
+        }
+        return offsets;
+    }
+
+    private static byte[] writeLoca(int[] offsets, boolean longLoca) {
+        ByteBuffer loca = ByteBuffer.allocate(offsets.length * (longLoca ? 4 : 2));
+        for (int offset : offsets) {
+            if (longLoca) {
+                loca.putInt(offset);
+            } else {
+                loca.putShort((short) (offset / 2));
+            }
+        }
+        return loca.array();
+    }
+
+    private static List<Integer> readComponents(ByteBuffer glyf, int start, int end) {
+        List<Integer> components = new ArrayList<Integer>();
+        if (end - start < 10 || glyf.getShort(start) >= 0) {
+            return components;
+        }
+        int offset = start + 10;
+        int flags;
+        do {
+            flags = glyf.getShort(offset) & 0xFFFF;
+            components.add(glyf.getShort(offset + 2) & 0xFFFF);
+            offset += 4;
+            offset += (flags & ARG_1_AND_2_ARE_WORDS) != 0 ? 4 : 2;
+            if ((flags & WE_HAVE_A_SCALE) != 0) {
+                offset += 2;
+            } else if ((flags & WE_HAVE_AN_X_AND_Y_SCALE) != 0) {
+                offset += 4;
+            } else if ((flags & WE_HAVE_A_TWO_BY_TWO) != 0) {
+                offset += 8;
+            }
+        } while ((flags & MORE_COMPONENTS) != 0);
+        return components;
+    }
+
+    /**
+     * Adds to {@code pending} the glyphs not kept yet that the {@code GSUB} lookups can
+     * substitute for the kept glyphs. The contextual lookups are not evaluated, because the
+     * lookups they reference are also in the lookup list and are applied to all the kept
+     * glyphs.
+     */
+    private static void addSubstitutions(ByteBuffer gsub, boolean[] keep,
+            List<Integer> pending) {
+        int lookupList = gsub.getShort(8) & 0xFFFF;
+        int lookupCount = gsub.getShort(lookupList) & 0xFFFF;
+        for (int i = 0; i < lookupCount; i++) {
+            int lookup = lookupList + (gsub.getShort(lookupList + 2 + i * 2) & 0xFFFF);
+            int lookupType = gsub.getShort(lookup) & 0xFFFF;
+            int subTableCount = gsub.getShort(lookup + 4) & 0xFFFF;
+            for (int j = 0; j < subTableCount; j++) {
+                int subTable = lookup + (gsub.getShort(lookup + 6 + j * 2) & 0xFFFF);
+                int type = lookupType;
+                if (type == GSUB_EXTENSION) {
+                    type = gsub.getShort(subTable + 2) & 0xFFFF;
+                    subTable += gsub.getInt(subTable + 4);
+                }
+                addSubstitutions(gsub, type, subTable, keep, pending);
+            }
+        }
+    }
+
+    private static void addSubstitutions(ByteBuffer gsub, int type, int subTable,
+            boolean[] keep, List<Integer> pending) {
+        if (type < GSUB_SINGLE || (type > GSUB_LIGATURE && type != GSUB_REVERSE_CHAINING_SINGLE)) {
+            // The contextual lookups only reference other lookups
+            return;
+        }
+        int format = gsub.getShort(subTable) & 0xFFFF;
+        int[] coverage = readCoverage(gsub, subTable + (gsub.getShort(subTable + 2) & 0xFFFF));
+        switch (type) {
+            case GSUB_SINGLE:
+                for (int i = 0; i < coverage.length; i++) {
+                    if (isKept(keep, coverage[i])) {
+                        int substitute = format == 1
+                                ? (coverage[i] + gsub.getShort(subTable + 4)) & 0xFFFF
+                                : gsub.getShort(subTable + 6 + i * 2) & 0xFFFF;
+                        addGlyph(keep, pending, substitute);
+                    }
+                }
+                break;
+            case GSUB_MULTIPLE:
+            case GSUB_ALTERNATE:
+                for (int i = 0; i < coverage.length; i++) {
+                    if (isKept(keep, coverage[i])) {
+                        int sequence = subTable
+                                + (gsub.getShort(subTable + 6 + i * 2) & 0xFFFF);
+                        int glyphCount = gsub.getShort(sequence) & 0xFFFF;
+                        for (int k = 0; k < glyphCount; k++) {
+                            addGlyph(keep, pending, gsub.getShort(sequence + 2 + k * 2) & 0xFFFF);
+                        }
+                    }
+                }
+                break;
+            case GSUB_LIGATURE:
+                for (int i = 0; i < coverage.length; i++) {
+                    if (!isKept(keep, coverage[i])) {
+                        continue;
+                    }
+                    int ligatureSet = subTable + (gsub.getShort(subTable + 6 + i * 2) & 0xFFFF);
+                    int ligatureCount = gsub.getShort(ligatureSet) & 0xFFFF;
+                    for (int k = 0; k < ligatureCount; k++) {
+                        int ligature = ligatureSet
+                                + (gsub.getShort(ligatureSet + 2 + k * 2) & 0xFFFF);
+                        int componentCount = gsub.getShort(ligature + 2) & 0xFFFF;
+                        boolean allKept = true;
+                        for (int c = 1; c < componentCount && allKept; c++) {
+                            allKept = isKept(keep, gsub.getShort(ligature + 2 + c * 2) & 0xFFFF);
+                        }
+                        if (allKept) {
+                            addGlyph(keep, pending, gsub.getShort(ligature) & 0xFFFF);
+                        }
+                    }
+                }
+                break;
+            case GSUB_REVERSE_CHAINING_SINGLE:
+                int offset = subTable + 4;
+                offset += 2 + (gsub.getShort(offset) & 0xFFFF) * 2;
+                offset += 2 + (gsub.getShort(offset) & 0xFFFF) * 2;
+                for (int i = 0; i < coverage.length; i++) {
+                    if (isKept(keep, coverage[i])) {
+                        addGlyph(keep, pending, gsub.getShort(offset + 2 + i * 2) & 0xFFFF);
+                    }
+                }
+                break;
+        }
+    }
+
+    /**
+     * Reads a coverage table, returning the glyphs indexed by coverage index.
+     */
+    private static int[] readCoverage(ByteBuffer table, int offset) {
+        int format = table.getShort(offset) & 0xFFFF;
+        int count = table.getShort(offset + 2) & 0xFFFF;
+        if (format == 1) {
+            int[] glyphs = new int[count];
+            for (int i = 0; i < count; i++) {
+                glyphs[i] = table.getShort(offset + 4 + i * 2) & 0xFFFF;
+            }
+            return glyphs;
+        }
+        int size = 0;
+        for (int i = 0; i < count; i++) {
+            int range = offset + 4 + i * 6;
+            int end = (table.getShort(range + 2) & 0xFFFF) - (table.getShort(range) & 0xFFFF);
+            size = Math.max(size, (table.getShort(range + 4) & 0xFFFF) + end + 1);
+        }
+        int[] glyphs = new int[size];
+        for (int i = 0; i < count; i++) {
+            int range = offset + 4 + i * 6;
+            int start = table.getShort(range) & 0xFFFF;
+            int end = table.getShort(range + 2) & 0xFFFF;
+            int startIndex = table.getShort(range + 4) & 0xFFFF;
+            for (int glyph = start; glyph <= end; glyph++) {
+                glyphs[startIndex + glyph - start] = glyph;
+            }
+        }
+        return glyphs;
+    }
+
+    private static boolean isKept(boolean[] keep, int glyph) {
+        return glyph < keep.length && keep[glyph];
+    }
+
+    private static void addGlyph(boolean[] keep, List<Integer> pending, int glyph) {
+        if (glyph < keep.length && !keep[glyph]) {
+            pending.add(glyph);
+        }
+    }
+
+    /**
+     * Reads the Unicode mappings of the best {@code cmap} subtable found.
+     */
+    private static Map<Integer, Integer> readCmap(ByteBuffer cmap) throws IOException {
+        int numSubtables = cmap.getShort(2) & 0xFFFF;
+        int format4Offset = -1;
+        int format12Offset = -1;
+        for (int i = 0; i < numSubtables; i++) {
+            int platform = cmap.getShort(4 + i * 8) & 0xFFFF;
+            int encoding = cmap.getShort(6 + i * 8) & 0xFFFF;
+            int offset = cmap.getInt(8 + i * 8);
+            int format = cmap.getShort(offset) & 0xFFFF;
+            boolean unicode = platform == 0 || (platform == 3 && (encoding == 1 || encoding == 10));
+            if (unicode && format == 4 && format4Offset == -1) {
+                format4Offset = offset;
+            } else if (unicode && format == 12 && format12Offset == -1) {
+                format12Offset = offset;
+            }
+        }
+
+        Map<Integer, Integer> mappings = new TreeMap<Integer, Integer>();
+        if (format12Offset != -1) {
+            int numGroups = cmap.getInt(format12Offset + 12);
+            for (int i = 0; i < numGroups; i++) {
+                int group = format12Offset + 16 + i * 12;
+                int startCode = cmap.getInt(group);
+                int endCode = cmap.getInt(group + 4);
+                int startGlyph = cmap.getInt(group + 8);
+                for (int c = startCode; c <= endCode; c++) {
+                    mappings.put(c, startGlyph + c - startCode);
+                }
+            }
+        } else if (format4Offset != -1) {
+            int segCount = (cmap.getShort(format4Offset + 6) & 0xFFFF) / 2;
+            int endCodes = format4Offset + 14;
+            int startCodes = endCodes + segCount * 2 + 2;
+            int idDeltas = startCodes + segCount * 2;
+            int idRangeOffsets = idDeltas + segCount * 2;
+            for (int i = 0; i < segCount; i++) {
+                int endCode = cmap.getShort(endCodes + i * 2) & 0xFFFF;
+                int startCode = cmap.getShort(startCodes + i * 2) & 0xFFFF;
+                int idDelta = cmap.getShort(idDeltas + i * 2);
+                int idRangeOffset = cmap.getShort(idRangeOffsets + i * 2) & 0xFFFF;
+                for (int c = startCode; c <= endCode && c != 0xFFFF; c++) {
+                    int glyph;
+                    if (idRangeOffset == 0) {
+                        glyph = (c + idDelta) & 0xFFFF;
+                    } else {
+                        int glyphOffset = idRangeOffsets + i * 2 + idRangeOffset
+                                + (c - startCode) * 2;
+                        glyph = cmap.getShort(glyphOffset) & 0xFFFF;
+                        if (glyph != 0) {
+                            glyph = (glyph + idDelta) & 0xFFFF;
+                        }
+                    }
+                    if (glyph != 0) {
+                        mappings.put(c, glyph);
+                    }
+                }
+            }
+        } else {
+            throw new IOException("No Unicode cmap subtable found");
+        }
+        return mappings;
+    }
+
+    /**
+     * Writes a {@code cmap} with a format 4 subtable for the BMP code points, and a format 12
+     * subtable if there are supplementary code points.
+     */
+    private static byte[] writeCmap(Map<Integer, Integer> mappings) throws IOException {
+        // Group consecutive code points mapped to consecutive glyphs
+        List<int[]> groups = new ArrayList<int[]>();
+        int[] group = null;
+        boolean supplementary = false;
+        for (Map.Entry<Integer, Integer> entry : mappings.entrySet()) {
+            int c = entry.getKey();
+            int glyph = entry.getValue();
+            supplementary |= c > 0xFFFF;
+            if (group != null && c == group[1] + 1 && glyph == group[2] + c - group[0]) {
+                group[1] = c;
+            } else {
+                group = new int[]{c, c, glyph};
+                groups.add(group);
+            }
+        }
+
+        List<int[]> segments = new ArrayList<int[]>();
+        for (int[] g : groups) {
+            if (g[0] <= 0xFFFF) {
+                int end = Math.min(g[1], 0xFFFE);
+                segments.add(new int[]{g[0], end, g[2]});
+            }
+        }
+        segments.add(new int[]{0xFFFF, 0xFFFF, 0});
+
+        ByteArrayOutputStream format4Bytes = new ByteArrayOutputStream();
+        DataOutputStream format4 = new DataOutputStream(format4Bytes);
+        int segCount = segments.size();
+        int searchRange = 2 * Integer.highestOneBit(segCount);
+        format4.writeShort(4);
+        format4.writeShort(16 + segCount * 8);
+        format4.writeShort(0);
+        format4.writeShort(segCount * 2);
+        format4.writeShort(searchRange);
+        format4.writeShort(Integer.numberOfTrailingZeros(searchRange / 2));
+        format4.writeShort(segCount * 2 - searchRange);
+        for (int[] segment : segments) {
+            format4.writeShort(segment[1]);
+        }
+        format4.writeShort(0);
+        for (int[] segment : segments) {
+            format4.writeShort(segment[0]);
+        }
+        for (int[] segment : segments) {
+            format4.writeShort(segment[0] == 0xFFFF ? 1 : (segment[2] - segment[0]) & 0xFFFF);
+        }
+        for (int i = 0; i < segCount; i++) {
+            format4.writeShort(0);
+        }
+
+        ByteArrayOutputStream format12Bytes = new ByteArrayOutputStream();
+        if (supplementary) {
+            DataOutputStream format12 = new DataOutputStream(format12Bytes);
+            format12.writeShort(12);
+            format12.writeShort(0);
+            format12.writeInt(16 + groups.size() * 12);
+            format12.writeInt(0);
+            format12.writeInt(groups.size());
+            for (int[] g : groups) {
+                format12.writeInt(g[0]);
+                format12.writeInt(g[1]);
+                format12.writeInt(g[2]);
+            }
+        }
+
+        ByteArrayOutputStream cmapBytes = new ByteArrayOutputStream();
+        DataOutputStream cmap = new DataOutputStream(cmapBytes);
+        int numSubtables = supplementary ? 2 : 1;
+        int offset = 4 + numSubtables * 8;
+        cmap.writeShort(0);
+        cmap.writeShort(numSubtables);
+        cmap.writeShort(3);
+        cmap.writeShort(1);
+        cmap.writeInt(offset);
+        if (supplementary) {
+            cmap.writeShort(3);
+            cmap.writeShort(10);
+            cmap.writeInt(offset + format4Bytes.size());
+        }
+        format4Bytes.writeTo(cmap);
+        format12Bytes.writeTo(cmap);
+        cmap.flush();
+        return cmapBytes.toByteArray();
+    }
+
+    private static byte[] writeFont(int version, Map<String, ByteBuffer> tables)
+            throws IOException {
+        int numTables = tables.size();
+        int searchRange = 16 * Integer.highestOneBit(numTables);
+        int offset = 12 + numTables * 16;
+
+        ByteArrayOutputStream directoryBytes = new ByteArrayOutputStream();
+        DataOutputStream directory = new DataOutputStream(directoryBytes);
+        directory.writeInt(version);
+        directory.writeShort(numTables);
+        directory.writeShort(searchRange);
+        directory.writeShort(Integer.numberOfTrailingZeros(searchRange / 16));
+        directory.writeShort(numTables * 16 - searchRange);
+
+        ByteArrayOutputStream dataBytes = new ByteArrayOutputStream();
+        int headOffset = -1;
+        for (Map.Entry<String, ByteBuffer> entry : tables.entrySet()) {
+            byte[] table = toArray(entry.getValue());
+            if (entry.getKey().equals("head")) {
+                headOffset = offset;
+            }
+            directory.writeBytes(entry.getKey());
+            directory.writeInt(checksum(table));
+            directory.writeInt(offset);
+            directory.writeInt(table.length);
+            dataBytes.write(table);
+            int padding = (4 - table.length % 4) % 4;
+            for (int i = 0; i < padding; i++) {
+                dataBytes.write(0);
+            }
+            offset += table.length + padding;
+        }
+        directory.flush();
+        dataBytes.writeTo(directoryBytes);
+
+        byte[] font = directoryBytes.toByteArray();
+        int adjustment = (int) (0xB1B0AFBAL - (checksum(font) & 0xFFFFFFFFL));
+        ByteBuffer.wrap(font).putInt(headOffset + HEAD_CHECKSUM_ADJUSTMENT_OFFSET, adjustment);
+        return font;
+    }
+
+    private static int checksum(byte[] data) {
+        int sum = 0;
+        for (int i = 0; i < data.length; i += 4) {
+            int value = 0;
+            for (int j = 0; j < 4; j++) {
+                value <<= 8;
+                if (i + j < data.length) {
+                    value |= data[i + j] & 0xFF;
+                }
+            }
+            sum += value;
+        }
+        return sum;
+    }
+
+    private static ByteBuffer copy(ByteBuffer buffer) {
+        return ByteBuffer.wrap(toArray(buffer));
+    }
+
+    private static byte[] toArray(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.limit()];
+        ByteBuffer duplicate = buffer.duplicate();
+        duplicate.position(0);
+        duplicate.get(bytes);
+        return bytes;
+    }
+}
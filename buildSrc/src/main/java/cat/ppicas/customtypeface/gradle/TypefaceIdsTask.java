@@ -0,0 +1,334 @@
+/**
+ * Copyright (C) 2014 Pau Picas Sans <pau.picas@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package cat.ppicas.customtypeface.gradle;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.GradleException;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputDirectory;
+import org.gradle.api.tasks.Optional;
+import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.api.tasks.TaskAction;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Gradle task that generates integer ids for the typefaces of an application, so the
+ * {@code customTypeface} attributes can reference a typeface by id, and
+ * {@code CustomTypeface} can find it with an array index instead of a {@code String} lookup.
+ *
+ * <p>
+ * The typeface names are the names of the font files found in the fonts directory without
+ * the extension, followed by the names declared with {@link #typeface(String)}. The task
+ * generates a Java class with a constant for each id and a {@code NAMES} array with the
+ * names indexed by id, and an XML file with an {@code integer} resource for each id named
+ * {@code typeface_} plus the typeface name. Here is an example of the configuration of an
+ * application module:
+ * </p>
+ *
+ * <pre><code>
+ * task generateTypefaceIds(type: cat.ppicas.customtypeface.gradle.TypefaceIdsTask) {
+ *     fontsDir = file('src/main/fonts')
+ *     typeface 'remote-font'
+ *     packageName = 'com.example.app'
+ *     sourceOutputDir = file("$buildDir/generated/source/typefaceIds")
+ *     resOutputDir = file("$buildDir/generated/res/typefaceIds")
+ * }
+ *
+ * android.sourceSets.main.java.srcDir generateTypefaceIds.sourceOutputDir
+ * android.sourceSets.main.res.srcDir generateTypefaceIds.resOutputDir
+ * android.applicationVariants.all { variant -&gt;
+ *     variant.mergeResources.dependsOn generateTypefaceIds
+ *     variant.javaCompile.dependsOn generateTypefaceIds
+ * }
+ * </code></pre>
+ *
+ * <p>
+ * The generated names must be registered calling
+ * {@code CustomTypeface.registerTypefaceIds(TypefaceIds.NAMES)} before the first inflation.
+ * Then the layouts and styles can use {@code @integer/typeface_audiowide} as the value of
+ * {@code customTypeface}.
+ * </p>
+ */
+public class TypefaceIdsTask extends DefaultTask {
+
+    private static final List<String> FONT_EXTENSIONS = Arrays.asList(".ttf", ".otf");
+
+    private File mFontsDir;
+
+    private List<String> mTypefaceNames = new ArrayList<String>();
+
+    private String mPackageName;
+
+    private String mClassName = "TypefaceIds";
+
+    private File mSourceOutputDir;
+
+    private File mResOutputDir;
+
+    @InputDirectory
+    @Optional
+    public File getFontsDir() {
+        return mFontsDir;
+    }
+
+    /**
+     * @param fontsDir the directory containing the fonts, whose names will be typeface names
+     */
+    public void setFontsDir(File fontsDir) {
+        mFontsDir = fontsDir;
+    }
+
+    @Input
+    public List<String> getTypefaceNames() {
+        return mTypefaceNames;
+    }
+
+    /**
+     * Declares a typeface name not found in the fonts directory, like the name of a font
+     * downloaded or registered at runtime.
+     *
+     * @param typefaceName the name used to register the typeface
+     */
+    public void typeface(String typefaceName) {
+        mTypefaceNames.add(typefaceName);
+    }
+
+    @Input
+    public String getPackageName() {
+        return mPackageName;
+    }
+
+    /**
+     * @param packageName the package of the generated class
+     */
+    public void setPackageName(String packageName) {
+        mPackageName = packageName;
+    }
+
+    @Input
+    public String getClassName() {
+        return mClassName;
+    }
+
+    /**
+     * @param className the name of the generated class, by default {@code TypefaceIds}
+     */
+    public void setClassName(String className) {
+        mClassName = className;
+    }
+
+    @OutputDirectory
+    public File getSourceOutputDir() {
+        return mSourceOutputDir;
+    }
+
+    /**
+     * @param sourceOutputDir the source directory where to write the generated class
+     */
+    public void setSourceOutputDir(File sourceOutputDir) {
+        mSourceOutputDir = sourceOutputDir;
+    }
+
+    @OutputDirectory
+    public File getResOutputDir() {
+        return mResOutputDir;
+    }
+
+    /**
+     * @param resOutputDir the resource directory where to write the generated resources
+     */
+    public void setResOutputDir(File resOutputDir) {
+        mResOutputDir = resOutputDir;
+    }
+
+    @TaskAction
+    public void generateIds() throws IOException {
+        if (mPackageName == null) {
+            throw new GradleException("The packageName of " + getName() + " is not set");
+        }
+
+        Set<String> names = new LinkedHashSet<String>();
+        if (mFontsDir != null) {
+            collectFontNames(mFontsDir, names);
+        }
+        names.addAll(mTypefaceNames);
+
+        List<String> typefaceNames = new ArrayList<String>(names);
+        List<String> constantNames = new ArrayList<String>();
+        List<String> resourceNames = new ArrayList<String>();
+        Map<String, String> usedConstants = new HashMap<String, String>();
+        Map<String, String> usedResources = new HashMap<String, String>();
+        for (String typefaceName : typefaceNames) {
+            String constantName = toConstantName(typefaceName);
+            String resourceName = "typeface_" + toResourceName(typefaceName);
+            checkUnique(usedConstants, constantName, typefaceName);
+            checkUnique(usedResources, resourceName, typefaceName);
+            constantNames.add(constantName);
+            resourceNames.add(resourceName);
+        }
+
+        writeClass(typefaceNames, constantNames);
+        writeResources(resourceNames);
+        getLogger().info("Generated {} typeface ids", typefaceNames.size());
+    }
+
+    static String toConstantName(String typefaceName) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < typefaceName.length(); i++) {
+            char c = typefaceName.charAt(i);
+            sb.append(c < 128 && Character.isLetterOrDigit(c)
+                    ? Character.toUpperCase(c) : '_');
+        }
+        if (sb.length() == 0 || Character.isDigit(sb.charAt(0))) {
+            sb.insert(0, '_');
+        }
+        return sb.toString();
+    }
+
+    static String toResourceName(String typefaceName) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < typefaceName.length(); i++) {
+            char c = typefaceName.charAt(i);
+            sb.append(c < 128 && Character.isLetterOrDigit(c)
+                    ? Character.toLowerCase(c) : '_');
+        }
+        return sb.toString();
+    }
+
+    private static void checkUnique(Map<String, String> used, String generatedName,
+            String typefaceName) {
+        String previous = used.put(generatedName, typefaceName);
+        if (previous != null) {
+            throw new GradleException("The typeface names '" + previous + "' and '"
+                    + typefaceName + "' generate the same id name " + generatedName);
+        }
+    }
+
+    private void writeClass(List<String> typefaceNames, List<String> constantNames)
+            throws IOException {
+        File dir = new File(mSourceOutputDir, mPackageName.replace('.', File.separatorChar));
+        StringBuilder sb = new StringBuilder();
+        sb.append("// Generated by ").append(TypefaceIdsTask.class.getSimpleName())
+                .append(". Do not modify.\n\n");
+        sb.append("package ").append(mPackageName).append(";\n\n");
+        sb.append("public final class ").append(mClassName).append(" {\n\n");
+        for (int i = 0; i < constantNames.size(); i++) {
+            sb.append("    public static final int ").append(constantNames.get(i))
+                    .append(" = ").append(i).append(";\n");
+        }
+        sb.append("\n    public static final String[] NAMES = {\n");
+        for (String typefaceName : typefaceNames) {
+            sb.append("            \"").append(escapeJava(typefaceName)).append("\",\n");
+        }
+        sb.append("    };\n\n");
+        sb.append("    private ").append(mClassName).append("() {\n    }\n}\n");
+
+        deleteContents(mSourceOutputDir);
+        writeFile(new File(dir, mClassName + ".java"), sb.toString());
+    }
+
+    private void writeResources(List<String> resourceNames) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        sb.append("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n");
+        sb.append("<!-- Generated by ").append(TypefaceIdsTask.class.getSimpleName())
+                .append(". Do not modify. -->\n");
+        sb.append("<resources>\n");
+        for (int i = 0; i < resourceNames.size(); i++) {
+            sb.append("    <integer name=\"").append(resourceNames.get(i)).append("\">")
+                    .append(i).append("</integer>\n");
+        }
+        sb.append("</resources>\n");
+
+        deleteContents(mResOutputDir);
+        writeFile(new File(mResOutputDir, "values/typeface_ids.xml"), sb.toString());
+    }
+
+    private static void collectFontNames(File dir, Set<String> names) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files);
+        for (File file : files) {
+            if (file.isDirectory()) {
+                collectFontNames(file, names);
+                continue;
+            }
+            String fileName = file.getName();
+            int dot = fileName.lastIndexOf('.');
+            if (dot > 0 && FONT_EXTENSIONS.contains(
+                    fileName.substring(dot).toLowerCase(Locale.US))) {
+                names.add(fileName.substring(0, dot));
+            }
+        }
+    }
+
+    private static String escapeJava(String value) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20 || c > 0x7e) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static void deleteContents(File dir) throws IOException {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.isDirectory()) {
+                deleteContents(file);
+            }
+            if (!file.delete()) {
+                throw new IOException("Unable to delete " + file);
+            }
+        }
+    }
+
+    private static void writeFile(File file, String content) throws IOException {
+        if (!file.getParentFile().isDirectory() && !file.getParentFile().mkdirs()) {
+            throw new IOException("Unable to create " + file.getParentFile());
+        }
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write(content);
+        } finally {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/**
+ * Copyright (C) 2014 Pau Picas Sans <pau.picas@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package cat.ppicas.customtypeface.gradle;
+
+import org.gradle.api.GradleException;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FontSubsetTaskTest {
+
+    @Test
+    public void parseUnicodeRanges() {
+        Set<Integer> codePoints = FontSubsetTask.parseUnicodeRanges("U+0041-0043, U+20ac");
+
+        assertEquals(new HashSet<Integer>(Arrays.asList(0x41, 0x42, 0x43, 0x20AC)), codePoints);
+    }
+
+    @Test
+    public void parseUnicodeRangesWithSupplementaryCodePoints() {
+        Set<Integer> codePoints = FontSubsetTask.parseUnicodeRanges("U+1F600-1F601");
+
+        assertEquals(new HashSet<Integer>(Arrays.asList(0x1F600, 0x1F601)), codePoints);
+    }
+
+    @Test
+    public void parseUnicodeRangesIgnoresEmptyRanges() {
+        assertTrue(FontSubsetTask.parseUnicodeRanges("").isEmpty());
+        assertEquals(1, FontSubsetTask.parseUnicodeRanges(" ,U+0020,").size());
+    }
+
+    @Test(expected = GradleException.class)
+    public void parseUnicodeRangesFailsWithInvalidRanges() {
+        FontSubsetTask.parseUnicodeRanges("U+0041-0043, 20AC");
+    }
+}
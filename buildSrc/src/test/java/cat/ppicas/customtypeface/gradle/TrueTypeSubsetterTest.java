@@ -0,0 +1,142 @@
+/**
+ * Copyright (C) 2014 Pau Picas Sans <pau.picas@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package cat.ppicas.customtypeface.gradle;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.awt.Font;
+import java.awt.font.FontRenderContext;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TrueTypeSubsetterTest {
+
+    private static final File FONT_FILE = new File("../sample/src/main/fonts/audiowide.ttf");
+
+    // The glyphs of the "fi" and "fl" ligatures of the standard ligatures feature
+    private static final int FI_LIGATURE_GLYPH = 228;
+    private static final int FL_LIGATURE_GLYPH = 229;
+
+    private byte[] mFont;
+
+    private TrueTypeSubsetter mSubsetter;
+
+    @Before
+    public void setUp() throws IOException {
+        mFont = readFile(FONT_FILE);
+        mSubsetter = new TrueTypeSubsetter(Collections.singleton("DSIG"));
+    }
+
+    @Test
+    public void isSupported() {
+        assertTrue(TrueTypeSubsetter.isSupported(mFont));
+        assertFalse(TrueTypeSubsetter.isSupported(new byte[4]));
+        assertFalse(TrueTypeSubsetter.isSupported(new byte[]{'O', 'T', 'T', 'O', 0, 0, 0, 0,
+                0, 0, 0, 0}));
+    }
+
+    @Test
+    public void subsetKeepsOnlyTheCodePoints() throws Exception {
+        Font font = createFont(mSubsetter.subset(mFont, codePoints("file")));
+
+        assertTrue(font.canDisplay('f'));
+        assertTrue(font.canDisplay('e'));
+        assertFalse(font.canDisplay('x'));
+        assertTrue(hasOutline(font, font.createGlyphVector(frc(), "l").getGlyphCode(0)));
+    }
+
+    @Test
+    public void subsetKeepsTheLigaturesOfTheKeptGlyphs() throws Exception {
+        Font font = createFont(mSubsetter.subset(mFont, codePoints("file")));
+
+        assertTrue(hasOutline(font, FI_LIGATURE_GLYPH));
+        assertTrue(hasOutline(font, FL_LIGATURE_GLYPH));
+    }
+
+    @Test
+    public void subsetRemovesTheLigaturesOfMissingGlyphs() throws Exception {
+        Font font = createFont(mSubsetter.subset(mFont, codePoints("fx")));
+
+        assertFalse(hasOutline(font, FI_LIGATURE_GLYPH));
+        assertFalse(hasOutline(font, FL_LIGATURE_GLYPH));
+    }
+
+    @Test
+    public void subsetWithoutGsubRemovesTheLigatures() throws Exception {
+        TrueTypeSubsetter subsetter = new TrueTypeSubsetter(Arrays.asList("DSIG", "GSUB"));
+        Font font = createFont(subsetter.subset(mFont, codePoints("file")));
+
+        assertTrue(font.canDisplay('f'));
+        assertFalse(hasOutline(font, FI_LIGATURE_GLYPH));
+    }
+
+    @Test(expected = IOException.class)
+    public void subsetFailsWithUnsupportedFonts() throws IOException {
+        mSubsetter.subset(new byte[16], codePoints("a"));
+    }
+
+    private static Set<Integer> codePoints(String text) {
+        Set<Integer> codePoints = new HashSet<Integer>();
+        for (int i = 0; i < text.length(); i++) {
+            codePoints.add((int) text.charAt(i));
+        }
+        return codePoints;
+    }
+
+    private static Font createFont(byte[] data) throws Exception {
+        return Font.createFont(Font.TRUETYPE_FONT, new ByteArrayInputStream(data))
+                .deriveFont(40f);
+    }
+
+    private static FontRenderContext frc() {
+        return new FontRenderContext(null, true, true);
+    }
+
+    private static boolean hasOutline(Font font, int glyph) {
+        return !font.createGlyphVector(frc(), new int[]{glyph}).getOutline()
+                .getBounds2D().isEmpty();
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        byte[] data = new byte[(int) file.length()];
+        InputStream in = new FileInputStream(file);
+        try {
+            int read = 0;
+            while (read < data.length) {
+                int count = in.read(data, read, data.length - read);
+                if (count < 0) {
+                    throw new IOException("Unexpected end of " + file);
+                }
+                read += count;
+            }
+        } finally {
+            in.close();
+        }
+        return data;
+    }
+}
@@ -0,0 +1,44 @@
+/**
+ * Copyright (C) 2014 Pau Picas Sans <pau.picas@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package cat.ppicas.customtypeface.gradle;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class TypefaceIdsTaskTest {
+
+    @Test
+    public void toConstantName() {
+        assertEquals("AUDIOWIDE", TypefaceIdsTask.toConstantName("audiowide"));
+        assertEquals("OPEN_SANS_BOLD", TypefaceIdsTask.toConstantName("open-sans.Bold"));
+        assertEquals("CAF_", TypefaceIdsTask.toConstantName("caf\u00e9"));
+    }
+
+    @Test
+    public void toConstantNameWithLeadingDigit() {
+        assertEquals("_3D", TypefaceIdsTask.toConstantName("3d"));
+        assertEquals("_", TypefaceIdsTask.toConstantName(""));
+    }
+
+    @Test
+    public void toResourceName() {
+        assertEquals("audiowide", TypefaceIdsTask.toResourceName("audiowide"));
+        assertEquals("open_sans_bold", TypefaceIdsTask.toResourceName("Open-Sans Bold"));
+        assertEquals("3d", TypefaceIdsTask.toResourceName("3D"));
+    }
+}
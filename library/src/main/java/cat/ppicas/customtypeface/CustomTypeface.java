@@ -22,9 +22,15 @@ import android.content.res.Resources;
 import android.content.res.TypedArray;
 import android.graphics.Typeface;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
 import android.util.AttributeSet;
+import android.util.Log;
+import android.util.TypedValue;
 import android.view.LayoutInflater;
 import android.view.View;
+import android.view.ViewTreeObserver;
 import android.widget.AutoCompleteTextView;
 import android.widget.Button;
 import android.widget.CheckBox;
@@ -34,10 +40,16 @@ import android.widget.RadioButton;
 import android.widget.TextView;
 import android.widget.ToggleButton;
 
+import java.io.IOException;
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
 
 import static android.view.LayoutInflater.Factory;
 
@@ -171,8 +183,53 @@ import static android.view.LayoutInflater.Factory;
  */
 public class CustomTypeface {
 
+    private static final String TAG = "CustomTypeface";
+
+    static final int NO_ID = -1;
+
     private final Map<Class<?>, Integer> mDefStyleAttrs = new HashMap<Class<?>, Integer>();
-    private final Map<String, Typeface> mTypefaces = new HashMap<String, Typeface>();
+    private final Map<String, TypefaceHolder> mTypefaces = new HashMap<String, TypefaceHolder>();
+
+    private int[] mDefStyleAttrIds = new int[0];
+
+    // Names, holders and direct resolutions indexed by the ids registered with
+    // registerTypefaceIds. The arrays are replaced instead of modified, so they can be read
+    // without holding the lock of mTypefaces.
+    private final Map<String, Integer> mTypefaceIds = new HashMap<String, Integer>();
+    private volatile String[] mIdNames = new String[0];
+    private volatile TypefaceHolder[] mIdHolders = new TypefaceHolder[0];
+    private volatile Resolution[] mIdResolutions = new Resolution[0];
+
+    private volatile CustomTypefaceProfile mProfile;
+
+    private volatile int mGeneration;
+
+    private CustomTypefaceResolutionCache mResolutionCache;
+
+    private boolean mDeferredApply;
+
+    // Views with an applied typeface grouped by typeface name, and the Typeface applied to each
+    // one. They are only accessed from the main thread.
+    private final Map<String, WeakHashMap<TextView, Typeface>> mAppliedViews =
+            new HashMap<String, WeakHashMap<TextView, Typeface>>();
+    private final WeakHashMap<TextView, String> mViewTypefaceNames =
+            new WeakHashMap<TextView, String>();
+
+    private final Set<String> mPendingSwaps = new LinkedHashSet<String>();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final Runnable mSwapRunnable = new Runnable() {
+        @Override
+        public void run() {
+            String[] typefaceNames;
+            synchronized (mPendingSwaps) {
+                typefaceNames = mPendingSwaps.toArray(new String[mPendingSwaps.size()]);
+                mPendingSwaps.clear();
+            }
+            for (String typefaceName : typefaceNames) {
+                swapTypeface(typefaceName);
+            }
+        }
+    };
 
     public static CustomTypeface getInstance() {
         return SingletonHolder.instance;
@@ -217,6 +274,13 @@ public class CustomTypeface {
     public void registerAttributeForDefaultStyle(Class<? extends TextView> clazz,
             int themeAttribute) {
         mDefStyleAttrs.put(clazz, themeAttribute);
+        int[] ids = new int[mDefStyleAttrs.size()];
+        int i = 0;
+        for (Integer attr : mDefStyleAttrs.values()) {
+            ids[i++] = attr;
+        }
+        Arrays.sort(ids);
+        mDefStyleAttrIds = ids;
     }
 
     /**
@@ -226,7 +290,77 @@ public class CustomTypeface {
      * @return a {@link Typeface} or null if not found
      */
     public Typeface getTypeface(String typefaceName) {
-        return mTypefaces.get(typefaceName);
+        TypefaceHolder holder = getHolder(typefaceName);
+        if (holder == null) {
+            return null;
+        }
+        CustomTypefaceProfile profile = mProfile;
+        if (profile != null) {
+            profile.recordUse(typefaceName);
+        }
+        return holder.get();
+    }
+
+    /**
+     * Returns the {@link Typeface} that was registered with the name of the specified id.
+     * This avoids the lookup by name, because the {@code Typeface} is found by its index.
+     *
+     * @param typefaceId an id from the names registered with {@link #registerTypefaceIds}
+     * @return a {@link Typeface} or null if not found
+     * @see #registerTypefaceIds(String[])
+     */
+    public Typeface getTypeface(int typefaceId) {
+        TypefaceHolder[] holders = mIdHolders;
+        if (typefaceId < 0 || typefaceId >= holders.length || holders[typefaceId] == null) {
+            return null;
+        }
+        CustomTypefaceProfile profile = mProfile;
+        if (profile != null) {
+            profile.recordUse(getTypefaceName(typefaceId));
+        }
+        return holders[typefaceId].get();
+    }
+
+    /**
+     * Assigns an integer id to each typeface name, being the id the index of the name in
+     * the array. The typefaces registered with these names can be referenced using an
+     * {@code integer} resource as the value of the {@code customTypeface} attribute, and
+     * are found by index instead of by name. The names without a registered {@code Typeface}
+     * will be resolved when it's registered.
+     *
+     * <p>
+     * The ids are meant to be generated at build time with the {@code TypefaceIdsTask} found
+     * in {@code buildSrc}, that generates a class with the id constants and the names, and
+     * the {@code integer} resources to be used in the layouts and styles.
+     * </p>
+     *
+     * <pre><code>
+     * CustomTypeface.getInstance().registerTypefaceIds(TypefaceIds.NAMES);
+     * </code></pre>
+     *
+     * <p>
+     * The typefaces registered with any other name can still be referenced by name.
+     * </p>
+     *
+     * @param typefaceNames the typeface names indexed by id
+     */
+    public void registerTypefaceIds(String[] typefaceNames) {
+        String[] names = typefaceNames.clone();
+        Resolution[] resolutions = new Resolution[names.length];
+        for (int i = 0; i < names.length; i++) {
+            resolutions[i] = new Resolution(names[i], null, i, NO_ID);
+        }
+        synchronized (mTypefaces) {
+            TypefaceHolder[] holders = new TypefaceHolder[names.length];
+            mTypefaceIds.clear();
+            for (int i = 0; i < names.length; i++) {
+                mTypefaceIds.put(names[i], i);
+                holders[i] = mTypefaces.get(names[i]);
+            }
+            mIdNames = names;
+            mIdResolutions = resolutions;
+            mIdHolders = holders;
+        }
     }
 
     /**
@@ -234,11 +368,17 @@ public class CustomTypeface {
      * using a {@code customTypeface} attribute in the layout files, in order to apply the
      * registered {@code Typeface} to a a view.
      *
+     * <p>
+     * If a {@code Typeface} was already registered with the same name, the views where it was
+     * applied will be updated with the new one in the main thread. The views where the
+     * {@code Typeface} was changed after being applied are not updated.
+     * </p>
+     *
      * @param typefaceName a name that will identify this {@code Typeface}
      * @param typeface     a {@link Typeface} instance to register
      */
     public void registerTypeface(String typefaceName, Typeface typeface) {
-        mTypefaces.put(typefaceName, typeface);
+        putHolder(typefaceName, new TypefaceHolder(typeface));
     }
 
     /**
@@ -246,6 +386,11 @@ public class CustomTypeface {
      * for you. This will create the Typeface from a file located in the assets directory.
      * For more information see the {@link #registerTypeface(String, Typeface)} method.
      *
+     * <p>
+     * The {@code Typeface} is created lazily the first time it's used, or in background if
+     * it's preloaded by {@link #startProfile(CustomTypefaceProfile)}.
+     * </p>
+     *
      * @param typefaceName a name that will identify this {@code Typeface}
      * @param assets       a instance of {@link AssetManager}
      * @param filePath     a path to a TTF file located inside the assets folder
@@ -253,8 +398,149 @@ public class CustomTypeface {
      * @see #registerTypeface(String, Typeface)
      */
     public void registerTypeface(String typefaceName, AssetManager assets, String filePath) {
-        Typeface typeface = Typeface.createFromAsset(assets, filePath);
-        mTypefaces.put(typefaceName, typeface);
+        putHolder(typefaceName, new TypefaceHolder(assets, filePath));
+    }
+
+    /**
+     * Starts recording which typefaces are used during the startup of the application, and
+     * preloads in a background thread the typefaces recorded in the previous run, in the same
+     * order they were used. The typefaces not used in the previous startup will be created
+     * lazily. When the profile window finishes the new profile is saved, unless no typeface
+     * was used, like when the process is started by a service or a broadcast receiver. In this
+     * case the previous profile is kept for the next startup.
+     *
+     * <p>
+     * This method should be called in {@code Application.onCreate}, after registering
+     * the typefaces.
+     * </p>
+     *
+     * <pre><code>
+     * CustomTypeface.getInstance().registerTypeface("audiowide", getAssets(), "audiowide.ttf");
+     * CustomTypeface.getInstance().startProfile(new CustomTypefaceProfile(
+     *         new File(getFilesDir(), "typeface-profile")));
+     * </code></pre>
+     *
+     * @param profile a {@link CustomTypefaceProfile} to record the typefaces used
+     */
+    public void startProfile(final CustomTypefaceProfile profile) {
+        mProfile = profile;
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                for (String typefaceName : profile.loadSavedNames()) {
+                    loadTypeface(typefaceName);
+                }
+                try {
+                    Thread.sleep(profile.getRemainingMillis());
+                } catch (InterruptedException e) {
+                    return;
+                }
+                profile.stopRecording();
+                if (!profile.hasRecordedUses()) {
+                    return;
+                }
+                try {
+                    profile.save();
+                } catch (IOException e) {
+                    Log.w(TAG, "Unable to save the typeface profile", e);
+                }
+            }
+        }, "CustomTypefaceProfile");
+        thread.start();
+    }
+
+    /**
+     * Returns the registered {@code Typeface}, creating it if needed, without recording its
+     * use in the profile.
+     */
+    Typeface loadTypeface(String typefaceName) {
+        TypefaceHolder holder = getHolder(typefaceName);
+        return holder != null ? holder.get() : null;
+    }
+
+    /**
+     * Returns a number that changes each time a {@code Typeface} is registered, to let caches
+     * know when they must be invalidated.
+     */
+    int getGeneration() {
+        return mGeneration;
+    }
+
+    String getTypefaceName(int typefaceId) {
+        String[] names = mIdNames;
+        return typefaceId >= 0 && typefaceId < names.length ? names[typefaceId] : null;
+    }
+
+    String[] getTypefaceNames() {
+        synchronized (mTypefaces) {
+            return mTypefaces.keySet().toArray(new String[mTypefaces.size()]);
+        }
+    }
+
+    private void putHolder(String typefaceName, TypefaceHolder holder) {
+        TypefaceHolder previous;
+        synchronized (mTypefaces) {
+            previous = mTypefaces.put(typefaceName, holder);
+            Integer typefaceId = mTypefaceIds.get(typefaceName);
+            if (typefaceId != null) {
+                TypefaceHolder[] holders = mIdHolders.clone();
+                holders[typefaceId] = holder;
+                mIdHolders = holders;
+            }
+            mGeneration++;
+        }
+        if (previous != null) {
+            // Swap all the pending names in a single batch
+            synchronized (mPendingSwaps) {
+                if (mPendingSwaps.isEmpty()) {
+                    mMainHandler.post(mSwapRunnable);
+                }
+                mPendingSwaps.add(typefaceName);
+            }
+        }
+    }
+
+    private void swapTypeface(String typefaceName) {
+        WeakHashMap<TextView, Typeface> views = mAppliedViews.get(typefaceName);
+        if (views == null || views.isEmpty()) {
+            return;
+        }
+        Typeface typeface = loadTypeface(typefaceName);
+        if (typeface == null) {
+            return;
+        }
+        for (Map.Entry<TextView, Typeface> entry : views.entrySet()) {
+            TextView textView = entry.getKey();
+            Typeface applied = entry.getValue();
+            if (textView != null && applied != typeface && textView.getTypeface() == applied) {
+                textView.setTypeface(typeface);
+                entry.setValue(typeface);
+            }
+        }
+    }
+
+    private void setTypeface(TextView textView, String typefaceName, Typeface typeface) {
+        textView.setTypeface(typeface);
+        String previousName = mViewTypefaceNames.put(textView, typefaceName);
+        if (previousName != null && !previousName.equals(typefaceName)) {
+            WeakHashMap<TextView, Typeface> previousViews = mAppliedViews.get(previousName);
+            if (previousViews != null) {
+                previousViews.remove(textView);
+            }
+        }
+        WeakHashMap<TextView, Typeface> views = mAppliedViews.get(typefaceName);
+        if (views == null) {
+            views = new WeakHashMap<TextView, Typeface>();
+            mAppliedViews.put(typefaceName, views);
+        }
+        views.put(textView, typeface);
+    }
+
+    private TypefaceHolder getHolder(String typefaceName) {
+        synchronized (mTypefaces) {
+            return mTypefaces.get(typefaceName);
+        }
     }
 
     /**
@@ -282,6 +568,11 @@ public class CustomTypeface {
      * classes.
      * </p>
      *
+     * <p>
+     * When the {@code customTypeface} attribute is set directly in the tag, it's read from
+     * the {@code AttributeSet} without resolving any style or theme.
+     * </p>
+     *
      * @param view  the {@code View} to apply the typefaces
      * @param attrs attributes object extracted in the layout inflation
      */
@@ -290,15 +581,293 @@ public class CustomTypeface {
             return;
         }
         TextView textView = (TextView) view;
-        Resources.Theme theme = view.getContext().getTheme();
+        applyResolved(textView, resolve(textView, attrs));
+    }
+
+    /**
+     * Resolves the {@code customTypeface} of a view without applying it. The result only
+     * depends on the attributes, the theme and the class of the view, so it can be reused to
+     * apply the typeface to other views inflated from the same XML element.
+     */
+    Resolution resolve(TextView textView, AttributeSet attrs) {
+        Resolution resolution = getDirectResolution(textView.getContext().getResources(), attrs);
+        // If the Typeface is not registered let the full resolution decide, because
+        // a textAppearance could still provide one. Only the registration is checked, to
+        // avoid creating the Typeface during inflation when its application is deferred.
+        if (resolution != null && isRegistered(resolution)) {
+            return resolution;
+        }
+        return resolveTypeface(textView, attrs);
+    }
+
+    /**
+     * Applies a {@link Resolution} to the view, or defers it if the deferred application
+     * is enabled.
+     */
+    void applyResolved(TextView textView, Resolution resolution) {
+        if (mDeferredApply) {
+            deferResolution(textView, resolution);
+        } else {
+            applyResolution(textView, resolution);
+        }
+    }
+
+    /**
+     * Enables or disables the deferred application of typefaces. When enabled,
+     * {@link #applyTypeface(View, AttributeSet)} only resolves the {@code customTypeface} name
+     * during the inflation. The {@code Typeface} is created and applied when the view is
+     * attached to the window if it's shown, before its first measure, or else just before the
+     * view is drawn for the first time while it's shown, cancelling that frame. This avoids
+     * loading typefaces and measuring text again for the views that are {@code GONE} or never
+     * shown, reducing the inflation time of layouts with many hidden sections. Before API 12,
+     * the typeface is always applied at the first draw while shown.
+     *
+     * <p>
+     * The typeface is not applied if the {@code Typeface} of the view was changed after
+     * the inflation. This method must be called from the main thread.
+     * </p>
+     *
+     * @param deferredApply true to defer the application of typefaces
+     */
+    public void setDeferredApply(boolean deferredApply) {
+        mDeferredApply = deferredApply;
+    }
+
+    /**
+     * Sets a {@link CustomTypefaceResolutionCache} to persist the typefaces resolved from
+     * styles, default styles and themes across launches. Once a combination of theme, style
+     * and view class is resolved, the next inflations will skip the resolution, even after
+     * restarting the application.
+     *
+     * <p>
+     * The cache is only used for the views that don't define {@code customTypeface},
+     * {@code customTypefaceIgnoreParents} or {@code textAppearance} directly in the tag.
+     * </p>
+     *
+     * @param cache a {@code CustomTypefaceResolutionCache} or null to disable it
+     */
+    public void setResolutionCache(CustomTypefaceResolutionCache cache) {
+        mResolutionCache = cache;
+    }
+
+    private void deferResolution(TextView textView, Resolution resolution) {
+        if (resolution.mTypefaceName == null && resolution.mFallbackTypefaceName == null) {
+            return;
+        }
+        DeferredTypeface deferredTypeface = new DeferredTypeface(textView, resolution);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB_MR1) {
+            // Only listen to the pre-draws while the view is attached, so the window never
+            // keeps the listener of a detached view
+            deferredTypeface.mAttachListener = new DeferredTypefaceAttachListener(
+                    deferredTypeface);
+            textView.addOnAttachStateChangeListener(deferredTypeface.mAttachListener);
+            if (textView.getWindowToken() != null) {
+                deferredTypeface.onAttached(textView);
+            }
+            return;
+        }
+        deferredTypeface.register(textView);
+    }
+
+    private boolean isRegistered(Resolution resolution) {
+        if (resolution.mTypefaceId != NO_ID) {
+            TypefaceHolder[] holders = mIdHolders;
+            int typefaceId = resolution.mTypefaceId;
+            return typefaceId >= 0 && typefaceId < holders.length && holders[typefaceId] != null;
+        }
+        return getHolder(resolution.mTypefaceName) != null;
+    }
+
+    private Resolution getDirectResolution(Resources res, AttributeSet attrs) {
+        if (attrs == null) {
+            return null;
+        }
+        // The attribute name resource identifies both the namespace and the name, so there is
+        // no need to compare strings
+        for (int i = 0, count = attrs.getAttributeCount(); i < count; i++) {
+            if (attrs.getAttributeNameResource(i) != R.attr.customTypeface) {
+                continue;
+            }
+            int resId = attrs.getAttributeResourceValue(i, 0);
+            if (resId != 0) {
+                TypedValue value = new TypedValue();
+                try {
+                    res.getValue(resId, value, true);
+                } catch (Resources.NotFoundException e) {
+                    return null;
+                }
+                if (isTypefaceId(value)) {
+                    return getIdResolution(value.data);
+                }
+                return value.string != null ? new Resolution(value.string.toString(), null) : null;
+            }
+            // Values starting with '?' reference a theme attribute, and must be resolved
+            // using the theme. Integer literals are also left to the full resolution.
+            String value = attrs.getAttributeValue(i);
+            return value != null && !value.startsWith("?") ? new Resolution(value, null) : null;
+        }
+        return null;
+    }
+
+    private Resolution getIdResolution(int typefaceId) {
+        Resolution[] resolutions = mIdResolutions;
+        return typefaceId >= 0 && typefaceId < resolutions.length
+                ? resolutions[typefaceId] : new Resolution(null, null, typefaceId, NO_ID);
+    }
+
+    /**
+     * Returns the resolution with the ids of its registered typeface names, or the same
+     * resolution if there are no ids to add. The resolution cache only saves the names.
+     */
+    private Resolution withTypefaceIds(Resolution resolution) {
+        int typefaceId = resolution.mTypefaceId;
+        int fallbackTypefaceId = resolution.mFallbackTypefaceId;
+        synchronized (mTypefaces) {
+            if (typefaceId == NO_ID && resolution.mTypefaceName != null) {
+                Integer id = mTypefaceIds.get(resolution.mTypefaceName);
+                typefaceId = id != null ? id : NO_ID;
+            }
+            if (fallbackTypefaceId == NO_ID && resolution.mFallbackTypefaceName != null) {
+                Integer id = mTypefaceIds.get(resolution.mFallbackTypefaceName);
+                fallbackTypefaceId = id != null ? id : NO_ID;
+            }
+        }
+        if (typefaceId == resolution.mTypefaceId
+                && fallbackTypefaceId == resolution.mFallbackTypefaceId) {
+            return resolution;
+        }
+        return new Resolution(resolution.mTypefaceName, resolution.mFallbackTypefaceName,
+                typefaceId, fallbackTypefaceId);
+    }
+
+    private static boolean isTypefaceId(TypedValue value) {
+        return value.type == TypedValue.TYPE_INT_DEC || value.type == TypedValue.TYPE_INT_HEX;
+    }
+
+    private static int getTypefaceId(TypedArray typedArray) {
+        TypedValue value = typedArray.peekValue(R.styleable.CustomTypeface_customTypeface);
+        return value != null && isTypefaceId(value) ? value.data : NO_ID;
+    }
+
+    private static boolean hasTypefaceAttributes(AttributeSet attrs) {
+        if (attrs == null) {
+            return false;
+        }
+        for (int i = 0, count = attrs.getAttributeCount(); i < count; i++) {
+            int attr = attrs.getAttributeNameResource(i);
+            if (attr == R.attr.customTypeface || attr == R.attr.customTypefaceIgnoreParents
+                    || attr == android.R.attr.textAppearance) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Resolution resolveTypeface(TextView textView, AttributeSet attrs) {
+        Resources.Theme theme = textView.getContext().getTheme();
+        CustomTypefaceResolutionCache cache = mResolutionCache;
+        CustomTypefaceResolutionCache.Key key = null;
+        if (cache != null && !hasTypefaceAttributes(attrs)) {
+            int style = attrs != null ? attrs.getStyleAttribute() : 0;
+            key = cache.createKey(textView.getContext().getResources(), theme,
+                    mDefStyleAttrIds, style, textView.getClass());
+            Resolution resolution = cache.get(key);
+            if (resolution != null) {
+                Resolution withIds = withTypefaceIds(resolution);
+                if (withIds != resolution) {
+                    cache.update(key, withIds);
+                }
+                return withIds;
+            }
+        }
 
+        Resolution resolution = Resolution.NONE;
         List<Integer> defStyleAttrs = getHierarchyDefStyleAttrs(textView.getClass());
+        int resolvedCount = 0;
         for (Integer defStyleAttr : defStyleAttrs) {
-            boolean applied = applyTypeface(textView, defStyleAttr, attrs, theme);
-            if (applied) {
+            resolvedCount++;
+            Resolution found = resolveTypeface(defStyleAttr, attrs, theme);
+            if (found != null) {
+                resolution = found;
                 break;
             }
         }
+
+        if (key != null) {
+            // The resolution also depends on the theme attributes referenced from the styles,
+            // so they must be part of the key before caching it
+            List<Integer> referencedAttrs = getReferencedThemeAttributes(
+                    textView.getContext().getResources(), theme, attrs,
+                    defStyleAttrs.subList(0, resolvedCount));
+            if (cache.addReferencedAttributes(referencedAttrs)) {
+                key = cache.createKey(textView.getContext().getResources(), theme,
+                        mDefStyleAttrIds, key.getStyle(), textView.getClass());
+            }
+            cache.put(key, resolution);
+        }
+        return resolution;
+    }
+
+    /**
+     * Returns the theme attributes referenced with {@code ?attr} by the tag style, the default
+     * styles and the text appearances used to resolve a view. The styles are read with an empty
+     * theme, where the references to theme attributes are left unresolved.
+     */
+    private static List<Integer> getReferencedThemeAttributes(Resources res,
+            Resources.Theme theme, AttributeSet attrs, List<Integer> defStyleAttrs) {
+        List<Integer> referencedAttrs = new ArrayList<Integer>();
+        String styleValue = attrs != null ? attrs.getAttributeValue(null, "style") : null;
+        if (styleValue != null && styleValue.startsWith("?")) {
+            referencedAttrs.add(attrs.getStyleAttribute());
+        }
+
+        Resources.Theme emptyTheme = res.newTheme();
+        TypedValue value = new TypedValue();
+        for (Integer defStyleAttr : defStyleAttrs) {
+            int defStyleRes = 0;
+            if (defStyleAttr != 0 && theme.resolveAttribute(defStyleAttr, value, true)
+                    && value.type == TypedValue.TYPE_REFERENCE) {
+                defStyleRes = value.data;
+            }
+
+            TypedArray typedArray = emptyTheme.obtainStyledAttributes(attrs,
+                    new int[]{android.R.attr.textAppearance}, 0, defStyleRes);
+            addReferencedAttribute(typedArray, 0, referencedAttrs);
+            typedArray.recycle();
+
+            typedArray = emptyTheme.obtainStyledAttributes(attrs, R.styleable.CustomTypeface, 0,
+                    defStyleRes);
+            addReferencedAttribute(typedArray, R.styleable.CustomTypeface_customTypeface,
+                    referencedAttrs);
+            addReferencedAttribute(typedArray,
+                    R.styleable.CustomTypeface_customTypefaceIgnoreParents, referencedAttrs);
+            typedArray.recycle();
+
+            // The text appearance actually used, that could come from a theme attribute
+            typedArray = theme.obtainStyledAttributes(attrs,
+                    new int[]{android.R.attr.textAppearance}, defStyleAttr, 0);
+            int taResId = typedArray.getResourceId(0, -1);
+            typedArray.recycle();
+            if (taResId != -1) {
+                typedArray = emptyTheme.obtainStyledAttributes(taResId,
+                        R.styleable.CustomTypeface);
+                addReferencedAttribute(typedArray, R.styleable.CustomTypeface_customTypeface,
+                        referencedAttrs);
+                addReferencedAttribute(typedArray,
+                        R.styleable.CustomTypeface_customTypefaceIgnoreParents, referencedAttrs);
+                typedArray.recycle();
+            }
+        }
+        return referencedAttrs;
+    }
+
+    private static void addReferencedAttribute(TypedArray typedArray, int index,
+            List<Integer> referencedAttrs) {
+        TypedValue value = typedArray.peekValue(index);
+        if (value != null && value.type == TypedValue.TYPE_ATTRIBUTE
+                && !referencedAttrs.contains(value.data)) {
+            referencedAttrs.add(value.data);
+        }
     }
 
     private List<Integer> getHierarchyDefStyleAttrs(Class<?> clazz) {
@@ -314,48 +883,224 @@ public class CustomTypeface {
         return attrs;
     }
 
-    private boolean applyTypeface(TextView textView, int defStyleAttr,
-            AttributeSet attrs, Resources.Theme theme) {
+    private Resolution resolveTypeface(int defStyleAttr, AttributeSet attrs,
+            Resources.Theme theme) {
 
-        boolean applied = false;
+        String taTypefaceName = null;
+        int taTypefaceId = NO_ID;
+        boolean taFound = false;
 
         TypedArray typedArray = theme.obtainStyledAttributes(attrs,
                 new int[]{android.R.attr.textAppearance}, defStyleAttr, 0);
         int taResId = typedArray.getResourceId(0, -1);
         typedArray.recycle();
         if (taResId != -1) {
-            typedArray = theme.obtainStyledAttributes(taResId, new int[]{
-                    R.attr.customTypeface, R.attr.customTypefaceIgnoreParents});
-            applied = applyTypedArray(textView, typedArray);
+            typedArray = theme.obtainStyledAttributes(taResId, R.styleable.CustomTypeface);
+            taTypefaceId = getTypefaceId(typedArray);
+            taTypefaceName = getTypefaceName(typedArray, taTypefaceId);
+            taFound = taTypefaceId != NO_ID || isFound(typedArray, taTypefaceName);
             typedArray.recycle();
         }
 
         typedArray = theme.obtainStyledAttributes(attrs,
                 R.styleable.CustomTypeface, defStyleAttr, 0);
-        try {
-            return applyTypedArray(textView, typedArray) || applied;
-        } finally {
-            typedArray.recycle();
-        }
+        int typefaceId = getTypefaceId(typedArray);
+        String typefaceName = getTypefaceName(typedArray, typefaceId);
+        boolean found = typefaceId != NO_ID || isFound(typedArray, typefaceName);
+        typedArray.recycle();
+
+        return found || taFound
+                ? new Resolution(typefaceName, taTypefaceName, typefaceId, taTypefaceId) : null;
     }
 
-    private boolean applyTypedArray(TextView textView, TypedArray typedArray) {
-        boolean ignoreParents = typedArray.getBoolean(
+    private String getTypefaceName(TypedArray typedArray, int typefaceId) {
+        // TypedArray.getString would convert the integer ids to strings
+        return typefaceId != NO_ID ? getTypefaceName(typefaceId)
+                : typedArray.getString(R.styleable.CustomTypeface_customTypeface);
+    }
+
+    private static boolean isFound(TypedArray typedArray, String typefaceName) {
+        return typefaceName != null || typedArray.getBoolean(
                 R.styleable.CustomTypeface_customTypefaceIgnoreParents, false);
-        String typefaceName = typedArray.getString(
-                R.styleable.CustomTypeface_customTypeface);
-
-        if (ignoreParents && typefaceName == null) {
-            return true;
-        } else  if (typefaceName != null) {
-            Typeface typeface = getTypeface(typefaceName);
-            if (typeface != null) {
-                textView.setTypeface(typeface);
-            }
-            return true;
-        } else {
+    }
+
+    private boolean applyResolution(TextView textView, Resolution resolution) {
+        String typefaceName = resolution.mTypefaceName;
+        Typeface typeface = getTypeface(resolution.mTypefaceId, typefaceName);
+        if (typeface == null) {
+            typefaceName = resolution.mFallbackTypefaceName;
+            typeface = getTypeface(resolution.mFallbackTypefaceId, typefaceName);
+        }
+        if (typeface == null) {
             return false;
         }
+        setTypeface(textView, typefaceName, typeface);
+        return true;
+    }
+
+    private Typeface getTypeface(int typefaceId, String typefaceName) {
+        if (typefaceId != NO_ID) {
+            return getTypeface(typefaceId);
+        }
+        return typefaceName != null ? getTypeface(typefaceName) : null;
+    }
+
+    /**
+     * The result of resolving the {@code customTypeface} attributes of a view. The
+     * {@code customTypeface} of the view has precedence, but if it's not registered the one
+     * found in its textAppearance is used as a fallback. When a typeface is referenced by id,
+     * the id is kept with the name to find it by index.
+     */
+    static final class Resolution {
+
+        static final Resolution NONE = new Resolution(null, null);
+
+        final String mTypefaceName;
+        final String mFallbackTypefaceName;
+        final int mTypefaceId;
+        final int mFallbackTypefaceId;
+
+        Resolution(String typefaceName, String fallbackTypefaceName) {
+            this(typefaceName, fallbackTypefaceName, NO_ID, NO_ID);
+        }
+
+        Resolution(String typefaceName, String fallbackTypefaceName, int typefaceId,
+                int fallbackTypefaceId) {
+            mTypefaceName = typefaceName;
+            mFallbackTypefaceName = fallbackTypefaceName;
+            mTypefaceId = typefaceId;
+            mFallbackTypefaceId = fallbackTypefaceId;
+        }
+    }
+
+    /**
+     * Applies a resolved typeface to a view when it's attached to the window if it's already
+     * shown, or else at the first pre-draw where the view is shown.
+     */
+    private class DeferredTypeface implements ViewTreeObserver.OnPreDrawListener {
+
+        private final WeakReference<TextView> mTextView;
+        private final Resolution mResolution;
+        private final Typeface mInflatedTypeface;
+        private ViewTreeObserver mObserver;
+        private DeferredTypefaceAttachListener mAttachListener;
+
+        DeferredTypeface(TextView textView, Resolution resolution) {
+            mTextView = new WeakReference<TextView>(textView);
+            mResolution = resolution;
+            mInflatedTypeface = textView.getTypeface();
+        }
+
+        void register(View view) {
+            mObserver = view.getViewTreeObserver();
+            mObserver.addOnPreDrawListener(this);
+        }
+
+        void unregister() {
+            if (mObserver != null && mObserver.isAlive()) {
+                mObserver.removeOnPreDrawListener(this);
+            }
+            mObserver = null;
+        }
+
+        void onAttached(TextView textView) {
+            // The attach is dispatched before the view is measured, so a view already shown
+            // can get its typeface without cancelling a frame. Only the views shown later
+            // need to wait for a pre-draw.
+            if (isShown(textView)) {
+                apply(textView);
+            } else {
+                register(textView);
+            }
+        }
+
+        @Override
+        public boolean onPreDraw() {
+            TextView textView = mTextView.get();
+            if (textView == null) {
+                unregister();
+                return true;
+            }
+            // The observer of a view not attached yet is merged into the observer of the
+            // window when attached, so keep the one that is dispatching the pre-draws
+            if (textView.getWindowToken() != null) {
+                mObserver = textView.getViewTreeObserver();
+            }
+            if (!isShown(textView)) {
+                return true;
+            }
+            // Cancel the current frame, because the text must be measured again with the
+            // new typeface
+            return !apply(textView);
+        }
+
+        /**
+         * Stops listening and applies the typeface, unless it was changed after the inflation.
+         *
+         * @return true if the typeface of the view was changed
+         */
+        private boolean apply(TextView textView) {
+            unregister();
+            if (mAttachListener != null) {
+                textView.removeOnAttachStateChangeListener(mAttachListener);
+            }
+            return textView.getTypeface() == mInflatedTypeface
+                    && applyResolution(textView, mResolution);
+        }
+
+        private boolean isShown(TextView textView) {
+            // Check the visibility of the view before walking up its parents
+            return textView.getVisibility() == View.VISIBLE && textView.isShown();
+        }
+    }
+
+    /**
+     * Notifies a {@link DeferredTypeface} when the view is attached, and unregisters it from
+     * the {@code ViewTreeObserver} of the window when detached. Only used from API 12.
+     */
+    private static class DeferredTypefaceAttachListener
+            implements View.OnAttachStateChangeListener {
+
+        private final DeferredTypeface mDeferredTypeface;
+
+        DeferredTypefaceAttachListener(DeferredTypeface deferredTypeface) {
+            mDeferredTypeface = deferredTypeface;
+        }
+
+        @Override
+        public void onViewAttachedToWindow(View view) {
+            mDeferredTypeface.onAttached((TextView) view);
+        }
+
+        @Override
+        public void onViewDetachedFromWindow(View view) {
+            mDeferredTypeface.unregister();
+        }
+    }
+
+    private static class TypefaceHolder {
+
+        private final AssetManager mAssets;
+        private final String mFilePath;
+        private Typeface mTypeface;
+
+        TypefaceHolder(Typeface typeface) {
+            mAssets = null;
+            mFilePath = null;
+            mTypeface = typeface;
+        }
+
+        TypefaceHolder(AssetManager assets, String filePath) {
+            mAssets = assets;
+            mFilePath = filePath;
+        }
+
+        synchronized Typeface get() {
+            if (mTypeface == null && mAssets != null) {
+                mTypeface = Typeface.createFromAsset(mAssets, mFilePath);
+            }
+            return mTypeface;
+        }
     }
 
     private static class SingletonHolder {
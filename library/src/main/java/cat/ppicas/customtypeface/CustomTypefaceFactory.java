@@ -18,14 +18,21 @@ package cat.ppicas.customtypeface;
 
 import android.app.Activity;
 import android.content.Context;
+import android.content.res.Configuration;
+import android.content.res.Resources;
+import android.content.res.XmlResourceParser;
 import android.graphics.Typeface;
 import android.util.AttributeSet;
 import android.view.InflateException;
 import android.view.LayoutInflater;
 import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
 
 import java.lang.reflect.Constructor;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * An implementation of {@link LayoutInflater.Factory} that creates a {@link View} and applies
@@ -68,6 +75,13 @@ import java.util.HashMap;
  * </code></pre>
  *
  * <p>
+ * Layouts inflated many times, like the items of a list, can be inflated calling
+ * {@link #inflate(LayoutInflater, int, ViewGroup, boolean)}. The typeface resolved for each
+ * element of the layout is remembered, so the next inflations of the same layout apply the
+ * typeface without resolving the attributes and styles again.
+ * </p>
+ *
+ * <p>
  * For more info on how to use this class in combination with {@link CustomTypeface} please
  * check the {@link CustomTypeface documentation} of that class.
  * </p>
@@ -83,6 +97,8 @@ public class CustomTypefaceFactory implements LayoutInflater.Factory {
     private static final HashMap<String, Constructor<? extends View>> CONSTRUCTOR_MAP =
             new HashMap<String, Constructor<? extends View>>();
 
+    public static final int MAX_RESOLUTIONS = 256;
+
     private final Object[] mConstructorArgs = new Object[2];
 
     private final Context mContext;
@@ -91,6 +107,25 @@ public class CustomTypefaceFactory implements LayoutInflater.Factory {
 
     private LayoutInflater.Factory mFactory;
 
+    // Resolutions by layout and position of the element in the layout, of the layouts
+    // inflated with inflate() using the theme of mContext. The current layout is identified by
+    // the parser passed as the AttributeSet, to ignore the elements of the included layouts.
+    // Only the theme of mContext is remembered, because the views with an android:theme get a
+    // new theme in each inflation, and keeping them would only fill the map.
+    private final Map<ResolutionKey, CustomTypeface.Resolution> mResolutions =
+            new LinkedHashMap<ResolutionKey, CustomTypeface.Resolution>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(
+                        Map.Entry<ResolutionKey, CustomTypeface.Resolution> eldest) {
+                    return size() > MAX_RESOLUTIONS;
+                }
+            };
+    private final ResolutionKey mLookupKey = new ResolutionKey();
+    private Configuration mResolutionsConfiguration;
+    private XmlResourceParser mLayoutParser;
+    private int mLayoutRes;
+    private int mLayoutPosition;
+
     public CustomTypefaceFactory(Context context, CustomTypeface customTypeface) {
         this(context, customTypeface, null);
     }
@@ -110,6 +145,54 @@ public class CustomTypefaceFactory implements LayoutInflater.Factory {
         mFactory = factory;
     }
 
+    /**
+     * Inflates a layout resource like {@link LayoutInflater#inflate(int, ViewGroup, boolean)},
+     * remembering the typeface resolved for each element of the layout. The next inflations of
+     * the same layout reuse the resolved typefaces, and only call {@code setTypeface} on the
+     * views. This is useful for layouts inflated many times, like the items of a list.
+     *
+     * <p>
+     * The {@code LayoutInflater} must have this {@code CustomTypefaceFactory} set as its
+     * factory. Only the elements using the theme of the {@code Context} of this factory are
+     * remembered, the ones with a different theme, like the ones inside an
+     * {@code android:theme}, are resolved in every inflation. The resolved typefaces are
+     * bounded to {@link #MAX_RESOLUTIONS}, and are discarded when the configuration changes.
+     * </p>
+     *
+     * @param inflater     a {@code LayoutInflater} using this factory
+     * @param layoutRes    the id of the layout resource to inflate
+     * @param root         the optional parent of the inflated layout
+     * @param attachToRoot whether the inflated layout should be attached to the root
+     * @return the root view of the inflated layout, or the root if it's attached
+     */
+    public View inflate(LayoutInflater inflater, int layoutRes, ViewGroup root,
+            boolean attachToRoot) {
+        Resources res = inflater.getContext().getResources();
+        Configuration configuration = res.getConfiguration();
+        if (mResolutionsConfiguration == null
+                || !mResolutionsConfiguration.equals(configuration)) {
+            mResolutions.clear();
+            mResolutionsConfiguration = new Configuration(configuration);
+        }
+
+        // Save the current layout, in case this is called while inflating another layout
+        XmlResourceParser previousParser = mLayoutParser;
+        int previousLayoutRes = mLayoutRes;
+        int previousLayoutPosition = mLayoutPosition;
+        XmlResourceParser parser = res.getLayout(layoutRes);
+        mLayoutParser = parser;
+        mLayoutRes = layoutRes;
+        mLayoutPosition = 0;
+        try {
+            return inflater.inflate(parser, root, attachToRoot);
+        } finally {
+            mLayoutParser = previousParser;
+            mLayoutRes = previousLayoutRes;
+            mLayoutPosition = previousLayoutPosition;
+            parser.close();
+        }
+    }
+
     /**
      * Implements {@link LayoutInflater.Factory} interface. Inflate the {@link View} for the
      * specified tag name and apply custom {@link Typeface} if is required. This
@@ -144,13 +227,38 @@ public class CustomTypefaceFactory implements LayoutInflater.Factory {
             if (view == null) {
                 view = createView(name, prefix, context, attrs);
             }
-            mCustomTypeface.applyTypeface(view, attrs);
+            if (attrs != null && attrs == mLayoutParser) {
+                applyRememberedTypeface(view, context, attrs, mLayoutPosition++);
+            } else {
+                mCustomTypeface.applyTypeface(view, attrs);
+            }
             return view;
         } catch (ClassNotFoundException e) {
             return null;
         }
     }
 
+    private void applyRememberedTypeface(View view, Context context, AttributeSet attrs,
+            int position) {
+        if (!(view instanceof TextView) || view.getContext() == null) {
+            return;
+        }
+        TextView textView = (TextView) view;
+        if (context.getTheme() != mContext.getTheme()) {
+            mCustomTypeface.applyTypeface(textView, attrs);
+            return;
+        }
+        mLookupKey.set(mLayoutRes, position);
+        CustomTypeface.Resolution resolution = mResolutions.get(mLookupKey);
+        if (resolution == null) {
+            resolution = mCustomTypeface.resolve(textView, attrs);
+            ResolutionKey key = new ResolutionKey();
+            key.set(mLayoutRes, position);
+            mResolutions.put(key, resolution);
+        }
+        mCustomTypeface.applyResolved(textView, resolution);
+    }
+
     /**
      * Low-level function for instantiating a view by name. This attempts to
      * instantiate a view class of the given <var>name</var> found in this
@@ -215,4 +323,32 @@ public class CustomTypefaceFactory implements LayoutInflater.Factory {
             throw ie;
         }
     }
+
+    private static final class ResolutionKey {
+
+        private int mLayoutRes;
+        private int mPosition;
+
+        void set(int layoutRes, int position) {
+            mLayoutRes = layoutRes;
+            mPosition = position;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof ResolutionKey)) {
+                return false;
+            }
+            ResolutionKey key = (ResolutionKey) o;
+            return mLayoutRes == key.mLayoutRes && mPosition == key.mPosition;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * mLayoutRes + mPosition;
+        }
+    }
 }
@@ -0,0 +1,196 @@
+/**
+ * Copyright (C) 2014 Pau Picas Sans <pau.picas@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package cat.ppicas.customtypeface;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Typeface;
+import android.text.TextPaint;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache of {@link TextPaint} configured with the typefaces registered in
+ * {@link CustomTypeface}, to draw text directly on a {@link Canvas}. The paints are cached by
+ * typeface name, text size, style and color, and its font metrics are computed only once.
+ * When a {@code Typeface} is registered again, the cached paints are discarded.
+ *
+ * <p>
+ * Getting a cached paint doesn't allocate any object, so it can be used from
+ * {@code View.onDraw}. The styles not supported by the {@code Typeface} are faked in the same
+ * way as {@link CustomTypefaceSpan} does.
+ * </p>
+ *
+ * <pre><code>
+ * {@literal @Override}
+ * protected void onDraw(Canvas canvas) {
+ *     CustomTypefacePaintCache.CachedPaint cachedPaint = sPaintCache.get(
+ *             "audiowide", mTextSize, Typeface.BOLD, Color.BLACK);
+ *     canvas.drawText(mLabel, 0, -cachedPaint.getFontMetrics().ascent,
+ *             cachedPaint.getPaint());
+ * }
+ * </code></pre>
+ *
+ * <p>
+ * The returned paints are shared, so they must not be modified.
+ * </p>
+ */
+public class CustomTypefacePaintCache {
+
+    public static final int DEFAULT_MAX_SIZE = 32;
+
+    private final CustomTypeface mCustomTypeface;
+    private final Map<Key, CachedPaint> mPaints;
+    private final Key mLookupKey = new Key();
+
+    private int mGeneration;
+
+    public CustomTypefacePaintCache(CustomTypeface customTypeface) {
+        this(customTypeface, DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * @param customTypeface the {@code CustomTypeface} where the typefaces are registered
+     * @param maxSize        the maximum number of paints to keep
+     */
+    public CustomTypefacePaintCache(CustomTypeface customTypeface, final int maxSize) {
+        mCustomTypeface = customTypeface;
+        mGeneration = customTypeface.getGeneration();
+        mPaints = new LinkedHashMap<Key, CachedPaint>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, CachedPaint> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Returns a {@link CachedPaint} configured with the specified parameters. If the
+     * {@code Typeface} is not registered the default one is used.
+     *
+     * @param typefaceName the name of the registered {@code Typeface}
+     * @param textSize     the text size in pixels
+     * @param style        the style of the text, like {@link Typeface#BOLD}
+     * @param color        the color of the text
+     * @return a {@code CachedPaint}
+     */
+    public synchronized CachedPaint get(String typefaceName, float textSize, int style,
+            int color) {
+        int generation = mCustomTypeface.getGeneration();
+        if (generation != mGeneration) {
+            mPaints.clear();
+            mGeneration = generation;
+        }
+
+        mLookupKey.set(typefaceName, textSize, style, color);
+        CachedPaint cachedPaint = mPaints.get(mLookupKey);
+        if (cachedPaint == null) {
+            cachedPaint = createPaint(typefaceName, textSize, style, color);
+            Key key = new Key();
+            key.set(typefaceName, textSize, style, color);
+            mPaints.put(key, cachedPaint);
+        }
+        return cachedPaint;
+    }
+
+    /**
+     * Removes all the cached paints.
+     */
+    public synchronized void clear() {
+        mPaints.clear();
+    }
+
+    private CachedPaint createPaint(String typefaceName, float textSize, int style, int color) {
+        Typeface typeface = mCustomTypeface.getTypeface(typefaceName);
+        if (typeface == null) {
+            typeface = Typeface.DEFAULT;
+        }
+        TextPaint paint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
+        CustomTypefaceSpan.applyTypeface(paint, typeface, style);
+        paint.setTextSize(textSize);
+        paint.setColor(color);
+        Paint.FontMetrics fontMetrics = new Paint.FontMetrics();
+        paint.getFontMetrics(fontMetrics);
+        return new CachedPaint(paint, fontMetrics);
+    }
+
+    /**
+     * A cached {@link TextPaint} with its precomputed font metrics.
+     */
+    public static final class CachedPaint {
+
+        private final TextPaint mPaint;
+        private final Paint.FontMetrics mFontMetrics;
+
+        CachedPaint(TextPaint paint, Paint.FontMetrics fontMetrics) {
+            mPaint = paint;
+            mFontMetrics = fontMetrics;
+        }
+
+        /**
+         * @return the configured {@code TextPaint}, that must not be modified
+         */
+        public TextPaint getPaint() {
+            return mPaint;
+        }
+
+        /**
+         * @return the font metrics of the paint, that must not be modified
+         */
+        public Paint.FontMetrics getFontMetrics() {
+            return mFontMetrics;
+        }
+    }
+
+    private static final class Key {
+
+        private String mTypefaceName;
+        private float mTextSize;
+        private int mStyle;
+        private int mColor;
+
+        void set(String typefaceName, float textSize, int style, int color) {
+            mTypefaceName = typefaceName;
+            mTextSize = textSize;
+            mStyle = style;
+            mColor = color;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return Float.compare(key.mTextSize, mTextSize) == 0 && mStyle == key.mStyle
+                    && mColor == key.mColor && mTypefaceName.equals(key.mTypefaceName);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = mTypefaceName.hashCode();
+            result = 31 * result + Float.floatToIntBits(mTextSize);
+            result = 31 * result + mStyle;
+            result = 31 * result + mColor;
+            return result;
+        }
+    }
+}
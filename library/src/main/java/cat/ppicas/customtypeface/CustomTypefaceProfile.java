@@ -0,0 +1,193 @@
+/**
+ * Copyright (C) 2014 Pau Picas Sans <pau.picas@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package cat.ppicas.customtypeface;
+
+import android.os.SystemClock;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Records which typefaces are used during the startup of the application, and in which order.
+ * The recorded profile is saved to a file, so the next time the application starts,
+ * {@link CustomTypeface} can preload in background only the typefaces that were used early.
+ *
+ * <p>
+ * Only the typefaces used during the profile window are recorded. The window starts when
+ * this object is created, so it should be created in {@code Application.onCreate}. Please,
+ * check {@link CustomTypeface#startProfile(CustomTypefaceProfile)} for an example.
+ * </p>
+ *
+ * @see CustomTypeface#startProfile(CustomTypefaceProfile)
+ */
+public class CustomTypefaceProfile {
+
+    /** Default duration of the profile window in milliseconds. */
+    public static final long DEFAULT_WINDOW_MILLIS = 5000;
+
+    private static final int MAGIC = 0x43545046;
+    private static final int VERSION = 1;
+
+    private final File mFile;
+    private final long mWindowMillis;
+    private final long mStartTime;
+    private final List<String> mNames = new ArrayList<String>();
+    private final List<Long> mOffsets = new ArrayList<Long>();
+    private final Set<String> mRecorded = new HashSet<String>();
+
+    private volatile boolean mRecording = true;
+
+    public CustomTypefaceProfile(File file) {
+        this(file, DEFAULT_WINDOW_MILLIS);
+    }
+
+    /**
+     * @param file         the {@code File} where the profile is saved, usually inside
+     *                     {@code Context.getFilesDir()}
+     * @param windowMillis the duration in milliseconds of the profile window
+     */
+    public CustomTypefaceProfile(File file, long windowMillis) {
+        mFile = file;
+        mWindowMillis = windowMillis;
+        mStartTime = SystemClock.elapsedRealtime();
+    }
+
+    public long getWindowMillis() {
+        return mWindowMillis;
+    }
+
+    /**
+     * Returns the milliseconds remaining until the end of the profile window.
+     *
+     * @return the remaining milliseconds, or 0 if the window is already closed
+     */
+    public long getRemainingMillis() {
+        return Math.max(0, mStartTime + mWindowMillis - SystemClock.elapsedRealtime());
+    }
+
+    /**
+     * Records the first use of a typeface during the profile window. Any use after the
+     * window, or after calling {@link #stopRecording()}, is ignored.
+     *
+     * @param typefaceName the name of the used {@code Typeface}
+     */
+    public void recordUse(String typefaceName) {
+        if (!mRecording) {
+            return;
+        }
+        long offset = SystemClock.elapsedRealtime() - mStartTime;
+        if (offset > mWindowMillis) {
+            mRecording = false;
+            return;
+        }
+        synchronized (this) {
+            if (mRecorded.add(typefaceName)) {
+                mNames.add(typefaceName);
+                mOffsets.add(offset);
+            }
+        }
+    }
+
+    /**
+     * Stops recording new typeface uses.
+     */
+    public void stopRecording() {
+        mRecording = false;
+    }
+
+    /**
+     * @return true if any typeface use was recorded
+     */
+    public synchronized boolean hasRecordedUses() {
+        return !mNames.isEmpty();
+    }
+
+    /**
+     * Returns the names of the typefaces recorded in the saved profile file that were used
+     * inside the profile window, in the same order they were used.
+     *
+     * @return a {@code List} with the typeface names, or an empty {@code List} if there is no
+     * valid profile file
+     */
+    public synchronized List<String> loadSavedNames() {
+        List<String> names = new ArrayList<String>();
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return names;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String name = in.readUTF();
+                long offset = in.readLong();
+                if (offset <= mWindowMillis) {
+                    names.add(name);
+                }
+            }
+        } catch (FileNotFoundException e) {
+            // There is no profile saved yet
+        } catch (IOException e) {
+            names.clear();
+        } finally {
+            closeQuietly(in);
+        }
+        return names;
+    }
+
+    /**
+     * Saves the uses recorded until now to the profile file, replacing the previous one.
+     *
+     * @throws IOException if the file can not be written
+     */
+    public synchronized void save() throws IOException {
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(mFile)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(mNames.size());
+            for (int i = 0; i < mNames.size(); i++) {
+                out.writeUTF(mNames.get(i));
+                out.writeLong(mOffsets.get(i));
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void closeQuietly(DataInputStream in) {
+        if (in != null) {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+    }
+}
@@ -0,0 +1,492 @@
+/**
+ * Copyright (C) 2014 Pau Picas Sans <pau.picas@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package cat.ppicas.customtypeface;
+
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.content.res.Configuration;
+import android.content.res.Resources;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+import android.util.TypedValue;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import cat.ppicas.customtypeface.CustomTypeface.Resolution;
+
+/**
+ * A cache of the typefaces resolved by {@link CustomTypeface} from styles, default styles and
+ * themes, that is persisted in a compact binary file. When the cache is loaded in the next
+ * launch, the first inflation of each screen can skip the resolution of the views already
+ * resolved before.
+ *
+ * <p>
+ * The resolutions are stored by theme, style and view class. Themes don't expose a stable
+ * identifier, so a theme is identified by the values it resolves for the attributes that affect
+ * the resolution. These include the default style attributes, and the theme attributes
+ * referenced with {@code ?attr} from the tag styles, default styles and text appearances,
+ * which are discovered while resolving. The file is keyed by the version
+ * of the application and the resource configuration. If any of them changes, the saved
+ * resolutions are discarded and the file is rebuilt. The configuration of the inflating
+ * context is checked in each lookup, so the resolutions are also discarded when it changes
+ * while the application is running, like after a rotation or a locale change. The new
+ * resolutions are saved in background a few seconds after being added.
+ * </p>
+ *
+ * <p>
+ * This class must be used from the main thread. Here is an example of how to enable it:
+ * </p>
+ *
+ * <pre><code>
+ * CustomTypeface.getInstance().setResolutionCache(new CustomTypefaceResolutionCache(this));
+ * </code></pre>
+ *
+ * @see CustomTypeface#setResolutionCache(CustomTypefaceResolutionCache)
+ */
+public class CustomTypefaceResolutionCache {
+
+    private static final String TAG = "CustomTypeface";
+
+    private static final String FILE_NAME = "customtypeface-resolutions";
+
+    private static final int MAGIC = 0x43545243;
+    private static final int VERSION = 2;
+
+    private static final long SAVE_DELAY_MILLIS = 2000;
+
+    private static final int[] THEME_ATTRS = new int[]{
+            android.R.attr.textAppearance, R.attr.customTypeface,
+            R.attr.customTypefaceIgnoreParents};
+
+    private final File mFile;
+    private final String mPackageKey;
+    private Configuration mConfiguration;
+    private String mCacheKey;
+    private final Map<Key, Resolution> mResolutions = new HashMap<Key, Resolution>();
+    private final List<Integer> mReferencedAttrs = new ArrayList<Integer>();
+    private final Map<Resources.Theme, ThemeKey> mThemeKeys =
+            new WeakHashMap<Resources.Theme, ThemeKey>();
+    private final TypedValue mTypedValue = new TypedValue();
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    private boolean mSaveScheduled;
+
+    private final Runnable mSaveRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mSaveScheduled = false;
+            final Map<Key, Resolution> resolutions = new HashMap<Key, Resolution>(mResolutions);
+            final List<Integer> referencedAttrs = new ArrayList<Integer>(mReferencedAttrs);
+            final String cacheKey = mCacheKey;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    try {
+                        save(resolutions, referencedAttrs, cacheKey);
+                    } catch (IOException e) {
+                        Log.w(TAG, "Unable to save the typeface resolution cache", e);
+                    }
+                }
+            }, "CustomTypefaceResolutionCache");
+            thread.start();
+        }
+    };
+
+    /**
+     * Creates the cache, and loads the resolutions saved in the cache directory of the
+     * application.
+     *
+     * @param context a {@code Context} of the application
+     */
+    public CustomTypefaceResolutionCache(Context context) {
+        this(new File(context.getCacheDir(), FILE_NAME), createPackageKey(context),
+                context.getResources());
+    }
+
+    CustomTypefaceResolutionCache(File file, String packageKey, Resources res) {
+        mFile = file;
+        mPackageKey = packageKey;
+        mConfiguration = new Configuration(res.getConfiguration());
+        mCacheKey = createCacheKey(packageKey, res);
+        load();
+    }
+
+    /**
+     * Removes all the resolutions, and the saved file.
+     */
+    public void clear() {
+        mResolutions.clear();
+        mReferencedAttrs.clear();
+        mThemeKeys.clear();
+        mHandler.removeCallbacks(mSaveRunnable);
+        mSaveScheduled = false;
+        mFile.delete();
+    }
+
+    Key createKey(Resources res, Resources.Theme theme, int[] defStyleAttrs, int style,
+            Class<?> viewClass) {
+        checkConfiguration(res);
+        return new Key(getThemeKey(theme, defStyleAttrs), style, viewClass.getName());
+    }
+
+    Resolution get(Key key) {
+        return mResolutions.get(key);
+    }
+
+    /**
+     * Discards the resolutions if the configuration of the inflating context is not the one
+     * they were resolved with. The resolutions pending to be saved are saved first, with the
+     * key of their configuration.
+     */
+    private void checkConfiguration(Resources res) {
+        Configuration configuration = res.getConfiguration();
+        if (mConfiguration.equals(configuration)) {
+            return;
+        }
+        mConfiguration = new Configuration(configuration);
+        String cacheKey = createCacheKey(mPackageKey, res);
+        if (cacheKey.equals(mCacheKey)) {
+            return;
+        }
+        if (mSaveScheduled) {
+            mHandler.removeCallbacks(mSaveRunnable);
+            mSaveRunnable.run();
+        }
+        mCacheKey = cacheKey;
+        mResolutions.clear();
+        mThemeKeys.clear();
+    }
+
+    /**
+     * Adds the theme attributes referenced while resolving a view to the values that identify
+     * a theme. When a new attribute is added, the keys created before are no longer valid, so
+     * the resolutions are discarded.
+     *
+     * @return true if any attribute was added, and the keys must be created again
+     */
+    boolean addReferencedAttributes(Collection<Integer> attrs) {
+        boolean added = false;
+        for (Integer attr : attrs) {
+            if (!mReferencedAttrs.contains(attr)) {
+                mReferencedAttrs.add(attr);
+                added = true;
+            }
+        }
+        if (added) {
+            mResolutions.clear();
+            mThemeKeys.clear();
+        }
+        return added;
+    }
+
+    void put(Key key, Resolution resolution) {
+        mResolutions.put(key, resolution);
+        if (!mSaveScheduled) {
+            mSaveScheduled = true;
+            mHandler.postDelayed(mSaveRunnable, SAVE_DELAY_MILLIS);
+        }
+    }
+
+    /**
+     * Replaces a resolution without saving the cache, because the resolution only differs
+     * in the typeface ids, which are not saved.
+     */
+    void update(Key key, Resolution resolution) {
+        mResolutions.put(key, resolution);
+    }
+
+    /**
+     * Themes don't expose a stable identifier, so a theme is identified by the values it
+     * resolves for the attributes that affect the typeface resolution. The result is kept
+     * for each {@code Theme} instance, unless the default style attributes or the referenced
+     * attributes change.
+     */
+    private String getThemeKey(Resources.Theme theme, int[] defStyleAttrs) {
+        ThemeKey themeKey = mThemeKeys.get(theme);
+        if (themeKey == null || themeKey.mDefStyleAttrs != defStyleAttrs) {
+            StringBuilder sb = new StringBuilder();
+            for (int attr : defStyleAttrs) {
+                appendThemeValue(sb, theme, attr);
+            }
+            for (int attr : THEME_ATTRS) {
+                appendThemeValue(sb, theme, attr);
+            }
+            for (int attr : mReferencedAttrs) {
+                appendThemeValue(sb, theme, attr);
+            }
+            themeKey = new ThemeKey(defStyleAttrs, sb.toString());
+            mThemeKeys.put(theme, themeKey);
+        }
+        return themeKey.mKey;
+    }
+
+    private void appendThemeValue(StringBuilder sb, Resources.Theme theme, int attr) {
+        TypedValue value = mTypedValue;
+        if (theme.resolveAttribute(attr, value, true)) {
+            sb.append(value.type).append(':').append(value.data);
+            if (value.type == TypedValue.TYPE_STRING) {
+                sb.append(':').append(value.string);
+            }
+        } else {
+            sb.append('-');
+        }
+        sb.append(';');
+    }
+
+    private void load() {
+        RandomAccessFile file = null;
+        try {
+            file = new RandomAccessFile(mFile, "r");
+            FileChannel channel = file.getChannel();
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION
+                    || !mCacheKey.equals(readString(buffer))) {
+                // The file is outdated, it will be rebuilt with the new resolutions
+                return;
+            }
+            int referencedAttrCount = buffer.getInt();
+            for (int i = 0; i < referencedAttrCount; i++) {
+                mReferencedAttrs.add(buffer.getInt());
+            }
+            String[] themeKeys = readStrings(buffer);
+            String[] classNames = readStrings(buffer);
+            String[] typefaceNames = readStrings(buffer);
+            int count = buffer.getInt();
+            for (int i = 0; i < count; i++) {
+                String themeKey = themeKeys[buffer.getInt()];
+                int style = buffer.getInt();
+                String className = classNames[buffer.getInt()];
+                String typefaceName = getOrNull(typefaceNames, buffer.getInt());
+                String fallbackTypefaceName = getOrNull(typefaceNames, buffer.getInt());
+                mResolutions.put(new Key(themeKey, style, className),
+                        new Resolution(typefaceName, fallbackTypefaceName));
+            }
+        } catch (FileNotFoundException e) {
+            // There is no cache saved yet
+        } catch (IOException e) {
+            mResolutions.clear();
+            mReferencedAttrs.clear();
+        } catch (RuntimeException e) {
+            // The file is corrupted
+            mResolutions.clear();
+            mReferencedAttrs.clear();
+        } finally {
+            if (file != null) {
+                try {
+                    file.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+            }
+        }
+    }
+
+    private synchronized void save(Map<Key, Resolution> resolutions,
+            List<Integer> referencedAttrs, String cacheKey) throws IOException {
+        List<String> themeKeys = new ArrayList<String>();
+        List<String> classNames = new ArrayList<String>();
+        List<String> typefaceNames = new ArrayList<String>();
+        Map<String, Integer> themeKeyIndexes = new HashMap<String, Integer>();
+        Map<String, Integer> classNameIndexes = new HashMap<String, Integer>();
+        Map<String, Integer> typefaceNameIndexes = new HashMap<String, Integer>();
+        int[] entries = new int[resolutions.size() * 5];
+        int i = 0;
+        for (Map.Entry<Key, Resolution> entry : resolutions.entrySet()) {
+            Key key = entry.getKey();
+            Resolution resolution = entry.getValue();
+            entries[i++] = indexOf(key.mThemeKey, themeKeys, themeKeyIndexes);
+            entries[i++] = key.mStyle;
+            entries[i++] = indexOf(key.mClassName, classNames, classNameIndexes);
+            entries[i++] = indexOf(resolution.mTypefaceName, typefaceNames,
+                    typefaceNameIndexes);
+            entries[i++] = indexOf(resolution.mFallbackTypefaceName, typefaceNames,
+                    typefaceNameIndexes);
+        }
+
+        File tmpFile = new File(mFile.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmpFile)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writeString(out, cacheKey);
+            out.writeInt(referencedAttrs.size());
+            for (int attr : referencedAttrs) {
+                out.writeInt(attr);
+            }
+            writeStrings(out, themeKeys);
+            writeStrings(out, classNames);
+            writeStrings(out, typefaceNames);
+            out.writeInt(resolutions.size());
+            for (int entry : entries) {
+                out.writeInt(entry);
+            }
+        } finally {
+            out.close();
+        }
+        if (!tmpFile.renameTo(mFile)) {
+            throw new IOException("Unable to rename " + tmpFile);
+        }
+    }
+
+    private static int indexOf(String value, List<String> values, Map<String, Integer> indexes) {
+        if (value == null) {
+            return -1;
+        }
+        Integer index = indexes.get(value);
+        if (index == null) {
+            index = values.size();
+            values.add(value);
+            indexes.put(value, index);
+        }
+        return index;
+    }
+
+    private static String getOrNull(String[] values, int index) {
+        return index != -1 ? values[index] : null;
+    }
+
+    private static String readString(ByteBuffer buffer) throws IOException {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    private static String[] readStrings(ByteBuffer buffer) throws IOException {
+        String[] strings = new String[buffer.getInt()];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = readString(buffer);
+        }
+        return strings;
+    }
+
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        byte[] bytes = string.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static void writeStrings(DataOutputStream out, List<String> strings)
+            throws IOException {
+        out.writeInt(strings.size());
+        for (String string : strings) {
+            writeString(out, string);
+        }
+    }
+
+    private static String createPackageKey(Context context) {
+        StringBuilder sb = new StringBuilder();
+        try {
+            PackageInfo info = context.getPackageManager().getPackageInfo(
+                    context.getPackageName(), 0);
+            sb.append(info.versionCode);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.GINGERBREAD) {
+                sb.append(',').append(info.lastUpdateTime);
+            }
+        } catch (PackageManager.NameNotFoundException e) {
+            sb.append('-');
+        }
+        return sb.toString();
+    }
+
+    private static String createCacheKey(String packageKey, Resources res) {
+        StringBuilder sb = new StringBuilder(packageKey);
+        Configuration config = res.getConfiguration();
+        sb.append(';').append(config.mcc).append(',').append(config.mnc)
+                .append(',').append(config.locale).append(',').append(config.fontScale)
+                .append(',').append(config.orientation).append(',').append(config.touchscreen)
+                .append(',').append(config.keyboard).append(',').append(config.navigation);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.FROYO) {
+            sb.append(',').append(config.screenLayout).append(',').append(config.uiMode);
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB_MR2) {
+            sb.append(',').append(config.screenWidthDp)
+                    .append(',').append(config.screenHeightDp)
+                    .append(',').append(config.smallestScreenWidthDp);
+        }
+        sb.append(',').append(res.getDisplayMetrics().densityDpi);
+        return sb.toString();
+    }
+
+    static final class Key {
+
+        private final String mThemeKey;
+        private final int mStyle;
+        private final String mClassName;
+
+        Key(String themeKey, int style, String className) {
+            mThemeKey = themeKey;
+            mStyle = style;
+            mClassName = className;
+        }
+
+        int getStyle() {
+            return mStyle;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return mStyle == key.mStyle && mThemeKey.equals(key.mThemeKey)
+                    && mClassName.equals(key.mClassName);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = mThemeKey.hashCode();
+            result = 31 * result + mStyle;
+            result = 31 * result + mClassName.hashCode();
+            return result;
+        }
+    }
+
+    private static final class ThemeKey {
+
+        private final int[] mDefStyleAttrs;
+        private final String mKey;
+
+        ThemeKey(int[] defStyleAttrs, String key) {
+            mDefStyleAttrs = defStyleAttrs;
+            mKey = key;
+        }
+    }
+}
@@ -0,0 +1,585 @@
+/**
+ * Copyright (C) 2014 Pau Picas Sans <pau.picas@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package cat.ppicas.customtypeface;
+
+import android.graphics.Typeface;
+import android.text.Spannable;
+import android.text.SpannableString;
+import android.text.Spanned;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compiled set of rules that apply custom {@link Typeface} to the parts of a text that
+ * match them. Each rule is associated with the name of a {@code Typeface} registered in
+ * {@link CustomTypeface}.
+ *
+ * <p>
+ * There are three kinds of rules:
+ * </p>
+ *
+ * <ul>
+ * <li>Keywords: a set of literal strings, like a list of product names.</li>
+ * <li>Prefixed tokens: a prefix character followed by one or more characters of the
+ * specified character classes, like {@code #hashtags} or {@code @mentions}.</li>
+ * <li>Delimited text: any text between an opening and a closing character in the same
+ * line, like {@code `code`} snippets.</li>
+ * </ul>
+ *
+ * <p>
+ * All the keywords are compiled into a single Aho-Corasick automaton, so the text is scanned
+ * only once no matter how many keywords or rules are defined. When several rules match
+ * overlapping parts of the text, the match that starts first wins, then the longest one, and
+ * finally the one whose rule was added first.
+ * </p>
+ *
+ * <p>
+ * Instances of this class are immutable, so they can be built once, and then reused from
+ * any thread. For instance you can style long texts in a background thread calling
+ * {@link #apply(CharSequence, CustomTypeface)}, and then set the result in a {@code TextView}
+ * from the main thread. Please, register all the {@code Typeface} before doing it.
+ * </p>
+ *
+ * <pre><code>
+ * CustomTypefaceRules rules = new CustomTypefaceRules.Builder()
+ *         .addKeywords("audiowide", "Android", "Java")
+ *         .addPrefixedToken("permanent-marker", '#', CustomTypefaceRules.CHARS_WORD)
+ *         .addDelimited("permanent-marker", '`', '`')
+ *         .build();
+ *
+ * CharSequence text = rules.apply(message, CustomTypeface.getInstance());
+ * </code></pre>
+ *
+ * @see CustomTypefaceSpan
+ */
+public final class CustomTypefaceRules {
+
+    /** Character class with all the letters. */
+    public static final int CHARS_LETTERS = 1;
+
+    /** Character class with all the digits. */
+    public static final int CHARS_DIGITS = 1 << 1;
+
+    /** Character class with the underscore character. */
+    public static final int CHARS_UNDERSCORE = 1 << 2;
+
+    /** Character class with the hyphen character. */
+    public static final int CHARS_HYPHEN = 1 << 3;
+
+    /** Character class with the period character. */
+    public static final int CHARS_PERIOD = 1 << 4;
+
+    /** Character class with letters, digits and underscore. */
+    public static final int CHARS_WORD = CHARS_LETTERS | CHARS_DIGITS | CHARS_UNDERSCORE;
+
+    private static final int NO_STATE = -1;
+
+    private static final Comparator<Match> MATCH_COMPARATOR = new Comparator<Match>() {
+        @Override
+        public int compare(Match lhs, Match rhs) {
+            if (lhs.mStart != rhs.mStart) {
+                return lhs.mStart < rhs.mStart ? -1 : 1;
+            }
+            if (lhs.mEnd != rhs.mEnd) {
+                return lhs.mEnd > rhs.mEnd ? -1 : 1;
+            }
+            return lhs.mRule < rhs.mRule ? -1 : (lhs.mRule == rhs.mRule ? 0 : 1);
+        }
+    };
+
+    private final String[] mRuleTypefaceNames;
+    private final PatternRule[] mPatternRules;
+    private final boolean mIgnoreCase;
+    private final boolean mMatchWholeWords;
+    private final boolean mCompactSpans;
+
+    // Aho-Corasick automaton. The edges of each state are stored sorted by character in
+    // mEdgeChars and mEdgeTargets, from mStateEdges[state] to mStateEdges[state + 1].
+    private final int[] mStateEdges;
+    private final char[] mEdgeChars;
+    private final int[] mEdgeTargets;
+    private final int[] mFailure;
+    private final int[] mOutput;
+    private final int[] mDictionary;
+    private final int[] mKeywordLengths;
+    private final int[] mKeywordRules;
+
+    private CustomTypefaceRules(Builder builder) {
+        mRuleTypefaceNames = builder.mRuleTypefaceNames.toArray(
+                new String[builder.mRuleTypefaceNames.size()]);
+        mPatternRules = builder.mPatternRules.toArray(
+                new PatternRule[builder.mPatternRules.size()]);
+        mIgnoreCase = builder.mIgnoreCase;
+        mMatchWholeWords = builder.mMatchWholeWords;
+        mCompactSpans = builder.mCompactSpans;
+
+        int keywordCount = builder.mKeywords.size();
+        mKeywordLengths = new int[keywordCount];
+        mKeywordRules = new int[keywordCount];
+
+        // Build the trie
+        List<Map<Character, Integer>> goTo = new ArrayList<Map<Character, Integer>>();
+        List<Integer> output = new ArrayList<Integer>();
+        goTo.add(new HashMap<Character, Integer>());
+        output.add(NO_STATE);
+        for (int i = 0; i < keywordCount; i++) {
+            String keyword = builder.mKeywords.get(i);
+            mKeywordLengths[i] = keyword.length();
+            mKeywordRules[i] = builder.mKeywordRules.get(i);
+            int state = 0;
+            for (int j = 0; j < keyword.length(); j++) {
+                char c = normalize(keyword.charAt(j));
+                Integer next = goTo.get(state).get(c);
+                if (next == null) {
+                    next = goTo.size();
+                    goTo.add(new HashMap<Character, Integer>());
+                    output.add(NO_STATE);
+                    goTo.get(state).put(c, next);
+                }
+                state = next;
+            }
+            if (output.get(state) == NO_STATE) {
+                output.set(state, i);
+            }
+        }
+
+        int stateCount = goTo.size();
+        mStateEdges = new int[stateCount + 1];
+        mEdgeChars = new char[stateCount - 1];
+        mEdgeTargets = new int[stateCount - 1];
+        mOutput = new int[stateCount];
+        int edge = 0;
+        for (int state = 0; state < stateCount; state++) {
+            mStateEdges[state] = edge;
+            mOutput[state] = output.get(state);
+            Map<Character, Integer> edges = goTo.get(state);
+            Character[] chars = edges.keySet().toArray(new Character[edges.size()]);
+            Arrays.sort(chars);
+            for (Character c : chars) {
+                mEdgeChars[edge] = c;
+                mEdgeTargets[edge] = edges.get(c);
+                edge++;
+            }
+        }
+        mStateEdges[stateCount] = edge;
+
+        // Compute the failure and dictionary links in breadth-first order
+        mFailure = new int[stateCount];
+        mDictionary = new int[stateCount];
+        mDictionary[0] = NO_STATE;
+        LinkedList<Integer> queue = new LinkedList<Integer>();
+        for (int e = mStateEdges[0]; e < mStateEdges[1]; e++) {
+            int child = mEdgeTargets[e];
+            mFailure[child] = 0;
+            mDictionary[child] = NO_STATE;
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.removeFirst();
+            for (int e = mStateEdges[state]; e < mStateEdges[state + 1]; e++) {
+                int child = mEdgeTargets[e];
+                int failure = next(mFailure[state], mEdgeChars[e]);
+                mFailure[child] = failure;
+                mDictionary[child] = mOutput[failure] != NO_STATE
+                        ? failure : mDictionary[failure];
+                queue.add(child);
+            }
+        }
+    }
+
+    /**
+     * Search all the parts of the text that match any of the rules. The returned matches
+     * don't overlap, and are sorted by its position in the text.
+     *
+     * @param text a {@code CharSequence} to scan
+     * @return a {@code List} with the found {@link Match}
+     */
+    public List<Match> match(CharSequence text) {
+        List<Match> candidates = new ArrayList<Match>();
+        int length = text.length();
+        int state = 0;
+        // The start of the token or delimited text currently open by each pattern rule
+        int[] openings = new int[mPatternRules.length];
+        Arrays.fill(openings, -1);
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+
+            for (int r = 0; r < mPatternRules.length; r++) {
+                openings[r] = scanPattern(mPatternRules[r], text, i, openings[r], candidates);
+            }
+
+            state = next(state, normalize(c));
+            int output = mOutput[state] != NO_STATE ? state : mDictionary[state];
+            while (output != NO_STATE) {
+                int keyword = mOutput[output];
+                int start = i + 1 - mKeywordLengths[keyword];
+                if (!mMatchWholeWords || isWholeWord(text, start, i + 1)) {
+                    int rule = mKeywordRules[keyword];
+                    candidates.add(new Match(start, i + 1, rule, mRuleTypefaceNames[rule]));
+                }
+                output = mDictionary[output];
+            }
+        }
+        for (int r = 0; r < mPatternRules.length; r++) {
+            PatternRule rule = mPatternRules[r];
+            if (!rule.mDelimited && openings[r] != -1 && length > openings[r] + 1) {
+                candidates.add(new Match(openings[r], length, rule.mRule,
+                        mRuleTypefaceNames[rule.mRule]));
+            }
+        }
+
+        if (candidates.size() < 2) {
+            return candidates;
+        }
+        Collections.sort(candidates, MATCH_COMPARATOR);
+        List<Match> matches = new ArrayList<Match>();
+        int lastEnd = 0;
+        for (Match candidate : candidates) {
+            if (candidate.mStart >= lastEnd) {
+                matches.add(candidate);
+                lastEnd = candidate.mEnd;
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Creates a new {@link Spannable} {@link CharSequence} with a {@link CustomTypefaceSpan}
+     * applied to each part of the text that matches any of the rules. This method can be
+     * safely called from a background thread.
+     *
+     * @param text           a {@code CharSequence} containing the text that you want stylize
+     * @param customTypeface the {@code CustomTypeface} where the typefaces are registered
+     * @return a new {@code CharSequence} with the spans applied
+     */
+    public CharSequence apply(CharSequence text, CustomTypeface customTypeface) {
+        Spannable spannable = new SpannableString(text);
+        apply(spannable, customTypeface);
+        return spannable;
+    }
+
+    /**
+     * Applies a {@link CustomTypefaceSpan} to each part of the {@link Spannable} that matches
+     * any of the rules. Rules referencing a {@code Typeface} name that is not registered are
+     * ignored. If the rules were built with {@link Builder#setCompactSpans} enabled, the
+     * {@code CustomTypefaceSpan} of the {@code Spannable} are compacted afterwards.
+     *
+     * @param spannable      a {@code Spannable} to apply the styles
+     * @param customTypeface the {@code CustomTypeface} where the typefaces are registered
+     * @return the number of spans applied
+     */
+    public int apply(Spannable spannable, CustomTypeface customTypeface) {
+        List<Match> matches = match(spannable);
+        Typeface[] typefaces = new Typeface[mRuleTypefaceNames.length];
+        boolean[] resolved = new boolean[mRuleTypefaceNames.length];
+        int count = 0;
+        for (Match match : matches) {
+            if (!resolved[match.mRule]) {
+                typefaces[match.mRule] = customTypeface.getTypeface(match.mTypefaceName);
+                resolved[match.mRule] = true;
+            }
+            Typeface typeface = typefaces[match.mRule];
+            if (typeface != null) {
+                // Each match needs its own span instance, because setting a span already
+                // attached to a Spannable only moves it. The span is exclusive because it
+                // only belongs to the matched text.
+                spannable.setSpan(new CustomTypefaceSpan(typeface), match.mStart, match.mEnd,
+                        Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+                count++;
+            }
+        }
+        if (mCompactSpans && count > 0) {
+            new CustomTypefaceSpanCompactor().compact(spannable);
+        }
+        return count;
+    }
+
+    /**
+     * Advances a pattern rule with the character at the specified index, adding a candidate
+     * when a token or a delimited text is closed.
+     *
+     * @return the start of the token or delimited text open after this character, or -1
+     */
+    private int scanPattern(PatternRule rule, CharSequence text, int i, int opening,
+            List<Match> candidates) {
+        char c = text.charAt(i);
+        if (opening != -1) {
+            if (rule.mDelimited) {
+                if (c == '\n') {
+                    return -1;
+                } else if (c != rule.mClose) {
+                    return opening;
+                } else if (i > opening + 1) {
+                    candidates.add(new Match(opening, i + 1, rule.mRule,
+                            mRuleTypefaceNames[rule.mRule]));
+                    return -1;
+                }
+                // An empty delimited text doesn't match, but the closing character could
+                // open a new one
+            } else {
+                if (isInCharClasses(c, rule.mCharClasses)) {
+                    return opening;
+                } else if (i > opening + 1) {
+                    candidates.add(new Match(opening, i, rule.mRule,
+                            mRuleTypefaceNames[rule.mRule]));
+                }
+            }
+        }
+        boolean opens = c == rule.mOpen
+                && (rule.mDelimited || i == 0 || !isWordChar(text.charAt(i - 1)));
+        return opens ? i : -1;
+    }
+
+    private int next(int state, char c) {
+        while (true) {
+            int low = mStateEdges[state];
+            int high = mStateEdges[state + 1] - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                char midChar = mEdgeChars[mid];
+                if (midChar < c) {
+                    low = mid + 1;
+                } else if (midChar > c) {
+                    high = mid - 1;
+                } else {
+                    return mEdgeTargets[mid];
+                }
+            }
+            if (state == 0) {
+                return 0;
+            }
+            state = mFailure[state];
+        }
+    }
+
+    private char normalize(char c) {
+        return mIgnoreCase ? Character.toLowerCase(c) : c;
+    }
+
+    private static boolean isWholeWord(CharSequence text, int start, int end) {
+        return (start == 0 || !isWordChar(text.charAt(start - 1)))
+                && (end == text.length() || !isWordChar(text.charAt(end)));
+    }
+
+    private static boolean isWordChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_';
+    }
+
+    private static boolean isInCharClasses(char c, int charClasses) {
+        return ((charClasses & CHARS_LETTERS) != 0 && Character.isLetter(c))
+                || ((charClasses & CHARS_DIGITS) != 0 && Character.isDigit(c))
+                || ((charClasses & CHARS_UNDERSCORE) != 0 && c == '_')
+                || ((charClasses & CHARS_HYPHEN) != 0 && c == '-')
+                || ((charClasses & CHARS_PERIOD) != 0 && c == '.');
+    }
+
+    /**
+     * A part of a text that matches one of the rules.
+     */
+    public static final class Match {
+
+        private final int mStart;
+        private final int mEnd;
+        private final int mRule;
+        private final String mTypefaceName;
+
+        Match(int start, int end, int rule, String typefaceName) {
+            mStart = start;
+            mEnd = end;
+            mRule = rule;
+            mTypefaceName = typefaceName;
+        }
+
+        /**
+         * @return the start index of the match in the text
+         */
+        public int getStart() {
+            return mStart;
+        }
+
+        /**
+         * @return the end index (exclusive) of the match in the text
+         */
+        public int getEnd() {
+            return mEnd;
+        }
+
+        /**
+         * @return the name of the registered {@code Typeface} of the matching rule
+         */
+        public String getTypefaceName() {
+            return mTypefaceName;
+        }
+    }
+
+    private static final class PatternRule {
+
+        private final int mRule;
+        private final char mOpen;
+        private final char mClose;
+        private final int mCharClasses;
+        private final boolean mDelimited;
+
+        PatternRule(int rule, char open, char close, int charClasses, boolean delimited) {
+            mRule = rule;
+            mOpen = open;
+            mClose = close;
+            mCharClasses = charClasses;
+            mDelimited = delimited;
+        }
+    }
+
+    /**
+     * Builder to compile a {@link CustomTypefaceRules}. The order in which the rules are added
+     * is used to choose between rules matching exactly the same part of a text.
+     */
+    public static final class Builder {
+
+        private final List<String> mRuleTypefaceNames = new ArrayList<String>();
+        private final List<PatternRule> mPatternRules = new ArrayList<PatternRule>();
+        private final List<String> mKeywords = new ArrayList<String>();
+        private final List<Integer> mKeywordRules = new ArrayList<Integer>();
+        private boolean mIgnoreCase = false;
+        private boolean mMatchWholeWords = true;
+        private boolean mCompactSpans = false;
+
+        /**
+         * Adds a rule that matches any of the specified literal keywords.
+         *
+         * @param typefaceName the name of the registered {@code Typeface} to apply
+         * @param keywords     the keywords to match
+         * @return this builder
+         */
+        public Builder addKeywords(String typefaceName, String... keywords) {
+            return addKeywords(typefaceName, Arrays.asList(keywords));
+        }
+
+        /**
+         * Adds a rule that matches any of the specified literal keywords.
+         *
+         * @param typefaceName the name of the registered {@code Typeface} to apply
+         * @param keywords     a {@code Collection} with the keywords to match
+         * @return this builder
+         */
+        public Builder addKeywords(String typefaceName, Collection<String> keywords) {
+            int rule = addRule(typefaceName);
+            for (String keyword : keywords) {
+                if (keyword.length() == 0) {
+                    throw new IllegalArgumentException("Keywords can not be empty");
+                }
+                mKeywords.add(keyword);
+                mKeywordRules.add(rule);
+            }
+            return this;
+        }
+
+        /**
+         * Adds a rule that matches a prefix character followed by one or more characters of
+         * the specified character classes. The prefix must be at the beginning of a word.
+         *
+         * @param typefaceName the name of the registered {@code Typeface} to apply
+         * @param prefix       the character that starts the token, like {@code '#'}
+         * @param charClasses  a combination of {@code CHARS_*} flags like {@link #CHARS_WORD}
+         * @return this builder
+         */
+        public Builder addPrefixedToken(String typefaceName, char prefix, int charClasses) {
+            int rule = addRule(typefaceName);
+            mPatternRules.add(new PatternRule(rule, prefix, prefix, charClasses, false));
+            return this;
+        }
+
+        /**
+         * Adds a rule that matches the non empty text between the opening and closing
+         * characters, both included. The text must be in a single line. Unlike the prefixed
+         * tokens, the opening character doesn't need to be at the beginning of a word, so
+         * in {@code a`code`} the {@code `code`} part is matched. While a delimited text is
+         * open, other opening characters are part of the text.
+         *
+         * @param typefaceName the name of the registered {@code Typeface} to apply
+         * @param open         the opening character
+         * @param close        the closing character
+         * @return this builder
+         */
+        public Builder addDelimited(String typefaceName, char open, char close) {
+            int rule = addRule(typefaceName);
+            mPatternRules.add(new PatternRule(rule, open, close, 0, true));
+            return this;
+        }
+
+        /**
+         * Sets if the keywords must be matched ignoring the case. By default is false.
+         *
+         * @param ignoreCase true to ignore the case of the keywords
+         * @return this builder
+         */
+        public Builder setIgnoreCase(boolean ignoreCase) {
+            mIgnoreCase = ignoreCase;
+            return this;
+        }
+
+        /**
+         * Sets if the keywords must only match whole words, and not parts of a word.
+         * By default is true.
+         *
+         * @param matchWholeWords true to only match whole words
+         * @return this builder
+         */
+        public Builder setMatchWholeWords(boolean matchWholeWords) {
+            mMatchWholeWords = matchWholeWords;
+            return this;
+        }
+
+        /**
+         * Sets if the {@code CustomTypefaceSpan} of a {@code Spannable} must be compacted
+         * after applying the rules, merging the spans with the same {@code Typeface} that
+         * overlap or touch, including the spans applied before. By default is false.
+         *
+         * @param compactSpans true to compact the spans after applying the rules
+         * @return this builder
+         * @see CustomTypefaceSpanCompactor
+         */
+        public Builder setCompactSpans(boolean compactSpans) {
+            mCompactSpans = compactSpans;
+            return this;
+        }
+
+        /**
+         * Compiles the added rules.
+         *
+         * @return a new {@link CustomTypefaceRules}
+         */
+        public CustomTypefaceRules build() {
+            return new CustomTypefaceRules(this);
+        }
+
+        private int addRule(String typefaceName) {
+            if (typefaceName == null) {
+                throw new IllegalArgumentException("The typeface name can not be null");
+            }
+            mRuleTypefaceNames.add(typefaceName);
+            return mRuleTypefaceNames.size() - 1;
+        }
+    }
+}
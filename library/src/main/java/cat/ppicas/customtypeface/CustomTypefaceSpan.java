@@ -96,15 +96,23 @@ public class CustomTypefaceSpan extends MetricAffectingSpan {
      * @param start        the start index where to apply the span
      * @param end          the end index where to apply the span
      * @see Spannable#setSpan
+     * @see CustomTypefaceSpanCompactor
      */
     public static void applyToText(CharSequence charSequence, Typeface typeface,
             int start, int end) {
         if (charSequence instanceof Spannable) {
             Spannable spannable = (Spannable) charSequence;
-            spannable.setSpan(getInstance(typeface), start, end, Spanned.SPAN_INCLUSIVE_INCLUSIVE);
+            // A new instance is needed, because setting a span already attached to the
+            // Spannable would only move it
+            spannable.setSpan(new CustomTypefaceSpan(typeface), start, end,
+                    Spanned.SPAN_INCLUSIVE_INCLUSIVE);
         }
     }
 
+    Typeface getTypeface() {
+        return mTypeface;
+    }
+
     @Override
     public void updateDrawState(TextPaint drawState) {
         apply(drawState);
@@ -118,7 +126,15 @@ public class CustomTypefaceSpan extends MetricAffectingSpan {
     private void apply(Paint paint) {
         Typeface oldTypeface = paint.getTypeface();
         int oldStyle = oldTypeface != null ? oldTypeface.getStyle() : 0;
-        int fakeStyle = oldStyle &~ mTypeface.getStyle();
+        applyTypeface(paint, mTypeface, oldStyle);
+    }
+
+    /**
+     * Sets the {@link Typeface} on the {@link Paint}, faking the bold and italic styles
+     * requested that the {@code Typeface} doesn't have.
+     */
+    static void applyTypeface(Paint paint, Typeface typeface, int style) {
+        int fakeStyle = style &~ typeface.getStyle();
 
         if ((fakeStyle & Typeface.BOLD) != 0) {
             paint.setFakeBoldText(true);
@@ -128,6 +144,6 @@ public class CustomTypefaceSpan extends MetricAffectingSpan {
             paint.setTextSkewX(-0.25f);
         }
 
-        paint.setTypeface(mTypeface);
+        paint.setTypeface(typeface);
     }
 }
@@ -0,0 +1,321 @@
+/**
+ * Copyright (C) 2014 Pau Picas Sans <pau.picas@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package cat.ppicas.customtypeface;
+
+import android.graphics.Typeface;
+import android.text.Spannable;
+
+import java.util.Arrays;
+
+/**
+ * Merges the {@link CustomTypefaceSpan} of a {@link Spannable} that overlap or touch and
+ * apply the same {@link Typeface}, into fewer spans that render the text in the same
+ * way. Styling a text several times can leave many stacked spans, and the text
+ * layout iterates all of them in every measure and draw pass.
+ *
+ * <p>
+ * When spans with different typefaces overlap, the last one applied wins, as it happens when
+ * the text is drawn. The spans are reused when possible, keeping the flags of the spans found
+ * at the ends of each run. Empty spans are left untouched.
+ * </p>
+ *
+ * <p>
+ * A {@code CustomTypefaceSpan} fakes the bold and italic styles that its typeface lacks from
+ * the style of the typeface applied before it. So a group of spans overlapping each other,
+ * directly or through other spans, is left untouched if it has overlapping spans whose
+ * typefaces have different {@link Typeface#getStyle() styles}, because removing any of them
+ * could change the rendered text.
+ * </p>
+ *
+ * <pre><code>
+ * CustomTypefaceSpanCompactor compactor = new CustomTypefaceSpanCompactor();
+ * compactor.compact(spannable);
+ * Log.d(TAG, "Spans: " + compactor.getSpanCountBefore() + " -&gt; "
+ *         + compactor.getSpanCountAfter());
+ * </code></pre>
+ *
+ * <p>
+ * The span counts are accumulated over all the calls to {@link #compact(Spannable)}, until
+ * {@link #reset()} is called. This class is not thread safe.
+ * </p>
+ */
+public class CustomTypefaceSpanCompactor {
+
+    // The bits of the span flags that define the behavior of the end point
+    private static final int END_FLAGS_MASK = 0x03;
+
+    private int mSpanCountBefore;
+    private int mSpanCountAfter;
+
+    /**
+     * Compacts the {@link CustomTypefaceSpan} of the {@link Spannable} in two passes over
+     * the span boundaries sorted by position. The first one finds the overlapping spans whose
+     * typefaces have different styles, and the second one merges the other spans.
+     *
+     * @param spannable the {@code Spannable} to compact
+     * @return the number of spans removed
+     */
+    public int compact(Spannable spannable) {
+        CustomTypefaceSpan[] all = spannable.getSpans(0, spannable.length(),
+                CustomTypefaceSpan.class);
+        // Keep the order returned by getSpans, because it's the order in which the spans are
+        // applied, so a span with a greater index wins
+        CustomTypefaceSpan[] spans = new CustomTypefaceSpan[all.length];
+        int[] starts = new int[all.length];
+        int[] ends = new int[all.length];
+        int count = 0;
+        for (CustomTypefaceSpan span : all) {
+            int start = spannable.getSpanStart(span);
+            int end = spannable.getSpanEnd(span);
+            if (start < end) {
+                spans[count] = span;
+                starts[count] = start;
+                ends[count] = end;
+                count++;
+            }
+        }
+
+        // Each event encodes the position, the index of the span and if it's a start. The
+        // ends sort before the starts at the same position, so touching spans don't overlap.
+        long[] events = new long[count * 2];
+        for (int i = 0; i < count; i++) {
+            events[i * 2] = ((long) starts[i] << 32) | (i << 1) | 1;
+            events[i * 2 + 1] = ((long) ends[i] << 32) | (i << 1);
+        }
+        Arrays.sort(events);
+
+        int[] groups = new int[count];
+        boolean[] mixedGroups = findMixedStyleGroups(spans, count, events, groups);
+
+        // Runs of consecutive text with the same winning typeface, with the winning spans at
+        // both ends
+        int[] runStarts = new int[events.length];
+        int[] runEnds = new int[events.length];
+        int[] runFirstSpans = new int[events.length];
+        int[] runLastSpans = new int[events.length];
+        int runCount = 0;
+
+        // The active spans are kept in a max heap, and the ended ones are removed lazily when
+        // they reach the top, so finding the winner doesn't walk the inactive spans
+        boolean[] active = new boolean[count];
+        int[] heap = new int[count];
+        int heapSize = 0;
+        int e = 0;
+        while (e < events.length) {
+            int position = (int) (events[e] >>> 32);
+            for (; e < events.length && (int) (events[e] >>> 32) == position; e++) {
+                int index = ((int) events[e]) >>> 1;
+                if ((events[e] & 1) != 0) {
+                    active[index] = true;
+                    heapSize = heapPush(heap, heapSize, index);
+                } else {
+                    active[index] = false;
+                }
+            }
+            while (heapSize > 0 && !active[heap[0]]) {
+                heapSize = heapPop(heap, heapSize);
+            }
+            if (heapSize == 0 || e == events.length) {
+                continue;
+            }
+            int winner = heap[0];
+            if (mixedGroups[find(groups, winner)]) {
+                // The spans overlapping typefaces of other styles are left untouched
+                continue;
+            }
+            int nextPosition = (int) (events[e] >>> 32);
+            if (runCount > 0 && runEnds[runCount - 1] == position
+                    && sameTypeface(spans[runLastSpans[runCount - 1]], spans[winner])) {
+                runEnds[runCount - 1] = nextPosition;
+                runLastSpans[runCount - 1] = winner;
+            } else {
+                runStarts[runCount] = position;
+                runEnds[runCount] = nextPosition;
+                runFirstSpans[runCount] = winner;
+                runLastSpans[runCount] = winner;
+                runCount++;
+            }
+        }
+
+        boolean[] used = new boolean[count];
+        int keptCount = 0;
+        for (int i = 0; i < count; i++) {
+            if (mixedGroups[find(groups, i)]) {
+                used[i] = true;
+                keptCount++;
+            }
+        }
+        CustomTypefaceSpan[] runSpans = new CustomTypefaceSpan[runCount];
+        int[] runFlags = new int[runCount];
+        for (int r = 0; r < runCount; r++) {
+            int first = runFirstSpans[r];
+            int last = runLastSpans[r];
+            int reused = !used[first] ? first : (!used[last] ? last : -1);
+            int flags = (spannable.getSpanFlags(spans[first]) & ~END_FLAGS_MASK)
+                    | (spannable.getSpanFlags(spans[last]) & END_FLAGS_MASK);
+            if (reused != -1) {
+                used[reused] = true;
+                runSpans[r] = spans[reused];
+            } else {
+                runSpans[r] = new CustomTypefaceSpan(spans[first].getTypeface());
+            }
+            runFlags[r] = flags;
+        }
+
+        for (int i = 0; i < count; i++) {
+            if (!used[i]) {
+                spannable.removeSpan(spans[i]);
+            }
+        }
+        for (int r = 0; r < runCount; r++) {
+            CustomTypefaceSpan span = runSpans[r];
+            if (spannable.getSpanStart(span) != runStarts[r]
+                    || spannable.getSpanEnd(span) != runEnds[r]
+                    || spannable.getSpanFlags(span) != runFlags[r]) {
+                spannable.setSpan(span, runStarts[r], runEnds[r], runFlags[r]);
+            }
+        }
+
+        int countAfter = runCount + keptCount;
+        mSpanCountBefore += count;
+        mSpanCountAfter += countAfter;
+        return count - countAfter;
+    }
+
+    /**
+     * Groups the spans that overlap, directly or through other spans, and returns which
+     * groups have overlapping spans whose typefaces have different styles. The groups are
+     * written to {@code groups}, as the parents of a union-find indexed by span.
+     */
+    private static boolean[] findMixedStyleGroups(CustomTypefaceSpan[] spans, int count,
+            long[] events, int[] groups) {
+        boolean[] mixed = new boolean[count];
+        int[] styles = new int[count];
+        for (int i = 0; i < count; i++) {
+            groups[i] = i;
+            styles[i] = getStyle(spans[i]);
+        }
+
+        int[] activeStyleCounts = new int[4];
+        int activeCount = 0;
+        int activeGroup = -1;
+        int e = 0;
+        while (e < events.length) {
+            int position = (int) (events[e] >>> 32);
+            for (; e < events.length && (int) (events[e] >>> 32) == position; e++) {
+                int index = ((int) events[e]) >>> 1;
+                if ((events[e] & 1) != 0) {
+                    if (activeCount == 0) {
+                        activeGroup = index;
+                    } else {
+                        union(groups, mixed, activeGroup, index);
+                    }
+                    activeCount++;
+                    activeStyleCounts[styles[index]]++;
+                } else {
+                    activeCount--;
+                    activeStyleCounts[styles[index]]--;
+                }
+            }
+            int activeStyles = 0;
+            for (int styleCount : activeStyleCounts) {
+                activeStyles += styleCount > 0 ? 1 : 0;
+            }
+            if (activeStyles > 1) {
+                mixed[find(groups, activeGroup)] = true;
+            }
+        }
+        return mixed;
+    }
+
+    /**
+     * @return the number of non empty spans found before compacting
+     */
+    public int getSpanCountBefore() {
+        return mSpanCountBefore;
+    }
+
+    /**
+     * @return the number of non empty spans left after compacting
+     */
+    public int getSpanCountAfter() {
+        return mSpanCountAfter;
+    }
+
+    /**
+     * Resets the span counts.
+     */
+    public void reset() {
+        mSpanCountBefore = 0;
+        mSpanCountAfter = 0;
+    }
+
+    private static int getStyle(CustomTypefaceSpan span) {
+        Typeface typeface = span.getTypeface();
+        return typeface != null ? typeface.getStyle() & Typeface.BOLD_ITALIC : Typeface.NORMAL;
+    }
+
+    private static int find(int[] groups, int index) {
+        while (groups[index] != index) {
+            groups[index] = groups[groups[index]];
+            index = groups[index];
+        }
+        return index;
+    }
+
+    private static void union(int[] groups, boolean[] mixed, int a, int b) {
+        int rootA = find(groups, a);
+        int rootB = find(groups, b);
+        if (rootA != rootB) {
+            groups[rootB] = rootA;
+            mixed[rootA] |= mixed[rootB];
+        }
+    }
+
+    private static int heapPush(int[] heap, int size, int value) {
+        int i = size;
+        while (i > 0 && heap[(i - 1) / 2] < value) {
+            heap[i] = heap[(i - 1) / 2];
+            i = (i - 1) / 2;
+        }
+        heap[i] = value;
+        return size + 1;
+    }
+
+    private static int heapPop(int[] heap, int size) {
+        int value = heap[--size];
+        int i = 0;
+        while (i * 2 + 1 < size) {
+            int child = i * 2 + 1;
+            if (child + 1 < size && heap[child + 1] > heap[child]) {
+                child++;
+            }
+            if (heap[child] <= value) {
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = value;
+        return size;
+    }
+
+    private static boolean sameTypeface(CustomTypefaceSpan lhs, CustomTypefaceSpan rhs) {
+        Typeface typeface = lhs.getTypeface();
+        return typeface == null ? rhs.getTypeface() == null : typeface.equals(rhs.getTypeface());
+    }
+}
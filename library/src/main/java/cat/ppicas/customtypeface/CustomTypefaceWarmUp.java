@@ -0,0 +1,224 @@
+/**
+ * Copyright (C) 2014 Pau Picas Sans <pau.picas@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package cat.ppicas.customtypeface;
+
+import android.content.res.Resources;
+import android.content.res.TypedArray;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Typeface;
+import android.os.Process;
+import android.text.TextPaint;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Warms up the glyph caches of the typefaces registered in {@link CustomTypeface}. For each
+ * typeface and text size, it measures and draws a set of characters into an offscreen
+ * {@link Canvas} from a background thread. This way the glyphs are already rasterized when the
+ * first screen using them is drawn.
+ *
+ * <p>
+ * The text sizes can be read from the text appearances of a theme calling
+ * {@link #setTextSizesFromTheme}, or specified in pixels calling {@link #setTextSizes}. One
+ * of them must be called before {@link #start()}.
+ * </p>
+ *
+ * <pre><code>
+ * new CustomTypefaceWarmUp(CustomTypeface.getInstance())
+ *         .setTextSizesFromTheme(getTheme())
+ *         .setListener(new CustomTypefaceWarmUp.Listener() {
+ *             {@literal @Override}
+ *             public void onTypefaceWarmedUp(String typefaceName, long elapsedMillis) {
+ *                 Log.d("App", typefaceName + " warmed up in " + elapsedMillis + "ms");
+ *             }
+ *         })
+ *         .start();
+ * </code></pre>
+ */
+public class CustomTypefaceWarmUp {
+
+    /** The printable ASCII characters. */
+    public static final String DEFAULT_CHARACTERS = " !\"#$%&'()*+,-./0123456789:;<=>?@"
+            + "ABCDEFGHIJKLMNOPQRSTUVWXYZ[\\]^_`abcdefghijklmnopqrstuvwxyz{|}~";
+
+    private final CustomTypeface mCustomTypeface;
+
+    private String mCharacters = DEFAULT_CHARACTERS;
+
+    private float[] mTextSizes = new float[0];
+
+    private Listener mListener;
+
+    public CustomTypefaceWarmUp(CustomTypeface customTypeface) {
+        mCustomTypeface = customTypeface;
+    }
+
+    /**
+     * Sets the characters to draw for each typeface. By default are {@link #DEFAULT_CHARACTERS}.
+     *
+     * @param characters a {@code String} with the characters to draw
+     * @return this object
+     */
+    public CustomTypefaceWarmUp setCharacters(String characters) {
+        mCharacters = characters;
+        return this;
+    }
+
+    /**
+     * Sets the text sizes to use for each typeface from the {@code textAppearance},
+     * {@code textAppearanceSmall}, {@code textAppearanceMedium} and
+     * {@code textAppearanceLarge} attributes of the theme.
+     *
+     * @param theme the {@code Theme} used by the application
+     * @return this object
+     */
+    public CustomTypefaceWarmUp setTextSizesFromTheme(Resources.Theme theme) {
+        int[] appearanceAttrs = new int[]{android.R.attr.textAppearance,
+                android.R.attr.textAppearanceSmall, android.R.attr.textAppearanceMedium,
+                android.R.attr.textAppearanceLarge};
+        List<Float> textSizes = new ArrayList<Float>();
+        for (int appearanceAttr : appearanceAttrs) {
+            TypedArray typedArray = theme.obtainStyledAttributes(new int[]{appearanceAttr});
+            int appearanceResId = typedArray.getResourceId(0, 0);
+            typedArray.recycle();
+            if (appearanceResId == 0) {
+                continue;
+            }
+            typedArray = theme.obtainStyledAttributes(appearanceResId,
+                    new int[]{android.R.attr.textSize});
+            float textSize = typedArray.getDimension(0, 0);
+            typedArray.recycle();
+            if (textSize > 0 && !textSizes.contains(textSize)) {
+                textSizes.add(textSize);
+            }
+        }
+        mTextSizes = new float[textSizes.size()];
+        for (int i = 0; i < mTextSizes.length; i++) {
+            mTextSizes[i] = textSizes.get(i);
+        }
+        return this;
+    }
+
+    /**
+     * Sets the text sizes in pixels to use for each typeface. You may want to convert the
+     * sizes using {@link android.util.TypedValue#applyDimension}.
+     *
+     * @param textSizes the text sizes in pixels
+     * @return this object
+     */
+    public CustomTypefaceWarmUp setTextSizes(float... textSizes) {
+        mTextSizes = textSizes.clone();
+        return this;
+    }
+
+    /**
+     * Sets a {@link Listener} that will be notified when each typeface is warmed up.
+     *
+     * @param listener a {@code Listener} or null
+     * @return this object
+     */
+    public CustomTypefaceWarmUp setListener(Listener listener) {
+        mListener = listener;
+        return this;
+    }
+
+    /**
+     * Starts the warm up of all the currently registered typefaces in a background thread.
+     *
+     * @throws IllegalStateException if no text size was set
+     */
+    public void start() {
+        if (mTextSizes.length == 0) {
+            throw new IllegalStateException("No text sizes to warm up, please call "
+                    + "setTextSizes or setTextSizesFromTheme");
+        }
+        final String[] typefaceNames = mCustomTypeface.getTypefaceNames();
+        final char[] characters = mCharacters.toCharArray();
+        final float[] textSizes = mTextSizes;
+        final Listener listener = mListener;
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                warmUp(typefaceNames, characters, textSizes, listener);
+            }
+        }, "CustomTypefaceWarmUp");
+        thread.start();
+    }
+
+    private void warmUp(String[] typefaceNames, char[] characters, float[] textSizes,
+            Listener listener) {
+        float maxTextSize = 0;
+        for (float textSize : textSizes) {
+            maxTextSize = Math.max(maxTextSize, textSize);
+        }
+        if (maxTextSize <= 0 || characters.length == 0) {
+            return;
+        }
+
+        // Each glyph is drawn at the same position inside the bitmap, because the glyphs
+        // outside the clip bounds could be discarded before being rasterized
+        int bitmapSize = (int) Math.ceil(maxTextSize * 2);
+        Bitmap bitmap = Bitmap.createBitmap(bitmapSize, bitmapSize, Bitmap.Config.ALPHA_8);
+        Canvas canvas = new Canvas(bitmap);
+        TextPaint paint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
+        String text = new String(characters);
+
+        try {
+            for (String typefaceName : typefaceNames) {
+                long startTime = System.nanoTime();
+                Typeface typeface = mCustomTypeface.loadTypeface(typefaceName);
+                if (typeface == null) {
+                    continue;
+                }
+                paint.setTypeface(typeface);
+                for (float textSize : textSizes) {
+                    paint.setTextSize(textSize);
+                    paint.measureText(text);
+                    for (int i = 0; i < characters.length; i++) {
+                        canvas.drawText(characters, i, 1, 0, textSize, paint);
+                    }
+                }
+                if (listener != null) {
+                    long elapsedMillis = (System.nanoTime() - startTime) / 1000000;
+                    listener.onTypefaceWarmedUp(typefaceName, elapsedMillis);
+                }
+            }
+        } finally {
+            bitmap.recycle();
+        }
+    }
+
+    /**
+     * Interface to be notified when each typeface is warmed up. The methods of this interface
+     * are called from the background thread doing the warm up.
+     */
+    public interface Listener {
+
+        /**
+         * Called when the warm up of a typeface is finished.
+         *
+         * @param typefaceName  the name of the registered {@code Typeface}
+         * @param elapsedMillis the time spent creating the {@code Typeface}, if it was not
+         *                      created yet, and drawing its glyphs
+         */
+        void onTypefaceWarmedUp(String typefaceName, long elapsedMillis);
+    }
+}
@@ -19,7 +19,11 @@ package cat.ppicas.customtypeface.sample;
 import android.app.Application;
 import android.graphics.Typeface;
 
+import java.io.File;
+
 import cat.ppicas.customtypeface.CustomTypeface;
+import cat.ppicas.customtypeface.CustomTypefaceProfile;
+import cat.ppicas.customtypeface.CustomTypefaceResolutionCache;
 
 public class App extends Application {
 
@@ -27,6 +31,10 @@ public class App extends Application {
     public void onCreate() {
         super.onCreate();
 
+        // Register the typeface names with the ids generated at build time, so the styles
+        // can reference them with the generated integer resources.
+        CustomTypeface.getInstance().registerTypefaceIds(TypefaceIds.NAMES);
+
         // Register a Typeface creating first the object, and then registering the object
         // with a name.
         Typeface typeface = Typeface.createFromAsset(getAssets(), "permanent-marker.ttf");
@@ -42,5 +50,14 @@ public class App extends Application {
         // any widget providing from any third party library.
         CustomTypeface.getInstance().registerAttributeForDefaultStyle(AllCapsTextView.class,
                 R.attr.allCapsTextViewStyle);
+
+        // Record the typefaces used during the startup, and preload in background the ones
+        // that were used in the previous startup. The rest will be created lazily.
+        CustomTypeface.getInstance().startProfile(new CustomTypefaceProfile(
+                new File(getFilesDir(), "typeface-profile")));
+
+        // Persist the typefaces resolved from styles and themes, so the next launches can
+        // skip the resolution.
+        CustomTypeface.getInstance().setResolutionCache(new CustomTypefaceResolutionCache(this));
     }
 }